@@ -0,0 +1,106 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.takashiharano.webapp0.util.TaskThreads;
+
+/**
+ * Compares the platform and the virtual threads for the tasks that mostly
+ * sleep, like SampleAsynkTask.<br>
+ * Each task sleeps 100ms for 10 times. All tasks are submitted at once to a
+ * pool that has a thread for each task, and the wall time and the peak number
+ * of the OS threads are reported.
+ *
+ * <pre>
+ * mvn -P jdk21 test-compile
+ * java -cp target/classes:target/test-classes com.takashiharano.webapp0.bench.ThreadModeBenchmark [TASKS...]
+ * </pre>
+ */
+public class ThreadModeBenchmark {
+
+  private static final int LOOP = 10;
+  private static final long SLEEP_MILLIS = 100;
+
+  public static void main(String[] args) throws Exception {
+    int[] taskCounts = { 100, 1000, 10000 };
+    if (args.length > 0) {
+      taskCounts = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        taskCounts[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.println("java " + System.getProperty("java.version"));
+    System.out.println("mode      tasks    wall(ms)  os-threads  heap(KB)");
+    String[] modes = { TaskThreads.MODE_PLATFORM, TaskThreads.MODE_VIRTUAL };
+    for (int i = 0; i < modes.length; i++) {
+      String mode = modes[i];
+      boolean virtual = TaskThreads.setMode(mode);
+      if (TaskThreads.MODE_VIRTUAL.equals(mode) && !virtual) {
+        System.out.println("virtual   (not available on this JVM)");
+        continue;
+      }
+      for (int j = 0; j < taskCounts.length; j++) {
+        run(mode, taskCounts[j]);
+      }
+    }
+  }
+
+  private static void run(String mode, int taskCount) throws InterruptedException {
+    System.gc();
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    threadBean.resetPeakThreadCount();
+    Runtime rt = Runtime.getRuntime();
+    long heap0 = rt.totalMemory() - rt.freeMemory();
+
+    ExecutorService executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS, new SynchronousQueue<>(), TaskThreads.newThreadFactory("bench"));
+    CountDownLatch done = new CountDownLatch(taskCount);
+    long heapPeak = heap0;
+    long t0 = System.nanoTime();
+    String error = null;
+    int submitted = 0;
+    try {
+      for (; submitted < taskCount; submitted++) {
+        executor.execute(() -> {
+          try {
+            for (int k = 0; k < LOOP; k++) {
+              Thread.sleep(SLEEP_MILLIS);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        });
+      }
+    } catch (Throwable t) {
+      // e.g. OutOfMemoryError: unable to create native thread
+      error = t.toString();
+      for (int i = submitted; i < taskCount; i++) {
+        done.countDown();
+      }
+    }
+    while (!done.await(50, TimeUnit.MILLISECONDS)) {
+      heapPeak = Math.max(heapPeak, rt.totalMemory() - rt.freeMemory());
+    }
+    long wall = (System.nanoTime() - t0) / 1000000;
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+
+    int osThreads = threadBean.getPeakThreadCount();
+    long heapKb = (heapPeak - heap0) / 1024;
+    System.out.println(String.format("%-9s %6d %10d %11d %9d%s", mode, taskCount, wall, osThreads, heapKb, (error == null ? "" : "  " + error)));
+  }
+
+}
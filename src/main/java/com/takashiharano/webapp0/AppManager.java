@@ -5,17 +5,38 @@
  */
 package com.takashiharano.webapp0;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import javax.servlet.ServletContext;
+
 import com.libutil.FileUtil;
+import com.libutil.HashUtil;
 import com.libutil.Props;
 import com.libutil.StrUtil;
+import com.takashiharano.webapp0.action.ActionRegistry;
 import com.takashiharano.webapp0.async.AsyncTaskManager;
 import com.takashiharano.webapp0.session.SessionManager;
-import com.takashiharano.webapp0.task.HeapMonitor;
-import com.takashiharano.webapp0.task.IntervalTask;
+import com.takashiharano.webapp0.storage.DataStore;
+import com.takashiharano.webapp0.storage.DataStores;
+import com.takashiharano.webapp0.storage.KeyValueDataStore;
+import com.takashiharano.webapp0.task.AsyncTaskReaper;
 import com.takashiharano.webapp0.task.IntervalTaskManager;
+import com.takashiharano.webapp0.task.SessionInfoFlusher;
+import com.takashiharano.webapp0.task.SessionSweeper;
+import com.takashiharano.webapp0.task.TaskSchedule;
+import com.takashiharano.webapp0.task.TelemetrySampler;
+import com.takashiharano.webapp0.task.TimelineLogCompactor;
+import com.takashiharano.webapp0.task.UserDataCompactor;
+import com.takashiharano.webapp0.task.UserStatusFlusher;
+import com.takashiharano.webapp0.telemetry.TelemetryManager;
 import com.takashiharano.webapp0.user.GroupManager;
 import com.takashiharano.webapp0.user.UserManager;
+import com.takashiharano.webapp0.util.AsyncLogAppender;
 import com.takashiharano.webapp0.util.Log;
+import com.takashiharano.webapp0.util.TaskThreads;
 
 public class AppManager {
 
@@ -30,12 +51,17 @@ public class AppManager {
   private String appHomePath;
   private String appWorkspacePath;
   private Props config;
+  private DataStore dataStore;
   private String errorInfo;
   private UserManager userManager;
   private GroupManager groupManager;
   private SessionManager sessionManager;
   private IntervalTaskManager intervalTaskManager;
   private AsyncTaskManager asyncTaskManager;
+  private Attributes manifestAttributes;
+  private String appVersion;
+  private String versionETag;
+  private String instanceETag;
 
   /**
    * Returns the instance of the AppManager.
@@ -52,8 +78,12 @@ public class AppManager {
   /**
    * Callback for the web application initialization.<br>
    * This is called by ServletContextListener#contextInitialized().
+   *
+   * @param servletContext
+   *          the servlet context of the application
    */
-  public void onStart() {
+  public void onStart(ServletContext servletContext) {
+    loadManifest(servletContext);
     init();
   }
 
@@ -62,10 +92,22 @@ public class AppManager {
    * ServletContextListener#contextDestroyed().
    */
   public void onStop() {
-    getInstance().stopIntervalTsaks();
+    intervalTaskManager.shutdown();
+    if (asyncTaskManager != null) {
+      asyncTaskManager.onStop();
+    }
     sessionManager.onStop();
     userManager.onStop();
+    groupManager.onStop();
+    if (dataStore != null) {
+      try {
+        dataStore.close();
+      } catch (IOException ioe) {
+        Log.e("DataStore close error: " + ioe);
+      }
+    }
     Log.i("[OK] ==> APP STOPPED");
+    Log.stopAsync(AsyncLogAppender.DEFAULT_STOP_TIMEOUT_MILLIS);
   }
 
   public static String getBasePackageName() {
@@ -76,6 +118,77 @@ public class AppManager {
     return MODULE_NAME;
   }
 
+  /**
+   * Loads /META-INF/MANIFEST.MF.<br>
+   * The manifest does not change while the application is running, so it is
+   * read only once.
+   *
+   * @param servletContext
+   *          the servlet context of the application
+   */
+  private void loadManifest(ServletContext servletContext) {
+    manifestAttributes = new Attributes();
+    try (InputStream is = servletContext.getResourceAsStream("/META-INF/MANIFEST.MF")) {
+      if (is != null) {
+        Manifest manifest = new Manifest(is);
+        manifestAttributes = manifest.getMainAttributes();
+      }
+    } catch (IOException ioe) {
+      Log.e("Manifest load error", ioe);
+    }
+    appVersion = manifestAttributes.getValue("App-Version");
+    if (appVersion == null) {
+      appVersion = "";
+    }
+    String hash = HashUtil.getHashString(MODULE_NAME + "/" + appVersion, "SHA-256");
+    versionETag = "\"" + hash.substring(0, 16) + "\"";
+    instanceETag = "\"" + Long.toHexString(System.currentTimeMillis()) + "\"";
+  }
+
+  /**
+   * Returns the value of the main attribute in the manifest.
+   *
+   * @param name
+   *          the attribute name
+   * @return the value. null if not defined.
+   */
+  public String getManifestEntry(String name) {
+    if (manifestAttributes == null) {
+      return null;
+    }
+    return manifestAttributes.getValue(name);
+  }
+
+  /**
+   * Returns the application version defined in the manifest.
+   *
+   * @return the version. "" if not defined.
+   */
+  public String getAppVersion() {
+    return appVersion;
+  }
+
+  /**
+   * Returns the ETag for the version information.<br>
+   * This changes only when the application version changes.
+   *
+   * @return the ETag value including the double quotes
+   */
+  public String getVersionETag() {
+    return versionETag;
+  }
+
+  /**
+   * Returns the ETag that identifies the running instance of the
+   * application.<br>
+   * This changes when the application restarts.
+   *
+   * @return the ETag value including the double quotes
+   */
+  public String getInstanceETag() {
+    return instanceETag;
+  }
+
   /**
    * Reload the properties and re-initialize the application.
    */
@@ -141,6 +254,7 @@ public class AppManager {
   }
 
   private void _init() throws Exception {
+    long t0 = System.currentTimeMillis();
     String homePath = System.getenv("HOME");
     if (homePath == null) {
       throw new Exception("System env \"HOME\" is not defined.");
@@ -162,22 +276,55 @@ public class AppManager {
     }
     Log.i("WebAppWorkspace: " + appWorkspacePath);
 
+    boolean asyncLog = "async".equals(getConfigValue("log_mode", "sync"));
+    int logBufferSize = getConfigValueAsInteger("log_buffer_size", AsyncLogAppender.DEFAULT_CAPACITY);
+    String logOverflowPolicy = getConfigValue("log_overflow_policy", AsyncLogAppender.POLICY_BLOCK);
+    Log.setAsync(asyncLog, logBufferSize, logOverflowPolicy);
+    if (asyncLog) {
+      AsyncLogAppender appender = Log.getAppender();
+      Log.i("LogMode: async buffer=" + appender.getCapacity() + " overflow=" + appender.getPolicy());
+    }
+
+    String threadMode = getConfigValue("thread_mode", TaskThreads.MODE_PLATFORM);
+    TaskThreads.setMode(threadMode);
+    Log.i("ThreadMode: " + TaskThreads.getMode());
+
+    if (dataStore == null) {
+      String storageType = getConfigValue("storage_type", DataStores.TYPE_FILE);
+      int commitInterval = getConfigValueAsInteger("kv_commit_interval_ms", KeyValueDataStore.DEFAULT_COMMIT_INTERVAL_MILLIS);
+      dataStore = DataStores.create(storageType, appWorkspacePath, commitInterval);
+      Log.i("DataStore: " + dataStore.getClass().getSimpleName());
+    }
+    long t1 = System.currentTimeMillis();
+
     userManager = UserManager.getInstance();
     userManager.init();
+    long t2 = System.currentTimeMillis();
 
     groupManager = GroupManager.getInstance();
     groupManager.init();
+    long t3 = System.currentTimeMillis();
 
     if (sessionManager == null) {
       sessionManager = new SessionManager();
+      sessionManager.loadConfig();
       sessionManager.loadAllSessionsInfo();
+    } else {
+      sessionManager.loadConfig();
     }
+    long t4 = System.currentTimeMillis();
 
     if (intervalTaskManager == null) {
-      intervalTaskManager = new IntervalTaskManager();
+      int poolSize = getConfigValueAsInteger("interval_task_pool_size", IntervalTaskManager.DEFAULT_POOL_SIZE);
+      intervalTaskManager = new IntervalTaskManager(poolSize);
     }
     startIntervalTasks();
     asyncTaskManager = AsyncTaskManager.getInstance();
+    asyncTaskManager.init();
+    ActionRegistry.getInstance();
+    long t5 = System.currentTimeMillis();
+
+    Log.i("Init time: config=" + (t1 - t0) + "ms users=" + (t2 - t1) + "ms groups=" + (t3 - t2) + "ms sessions=" + (t4 - t3) + "ms tasks=" + (t5 - t4) + "ms total=" + (t5 - t0) + "ms");
   }
 
   /**
@@ -211,7 +358,11 @@ public class AppManager {
    * @return the value
    */
   public String getConfigValue(String key, String defaultValue) {
-    return config.getValue(key);
+    String value = config.getValue(key);
+    if ((value == null) || value.isEmpty()) {
+      return defaultValue;
+    }
+    return value;
   }
 
   /**
@@ -349,6 +500,15 @@ public class AppManager {
     return sessionManager;
   }
 
+  /**
+   * Returns the storage of the application data.
+   *
+   * @return DataStore
+   */
+  public DataStore getDataStore() {
+    return dataStore;
+  }
+
   /**
    * Returns the user manager object.
    *
@@ -382,10 +542,59 @@ public class AppManager {
   private void startIntervalTasks() {
     stopIntervalTsaks();
 
-    // Sample implementation of the Interval Task.
-    // TODO Remove if not necessary
-    IntervalTask task = new HeapMonitor();
-    intervalTaskManager.startTask("heapmon", task, 180);
+    TelemetryManager telemetryManager = TelemetryManager.getInstance();
+    telemetryManager.init();
+    intervalTaskManager.startTask("telemetry", new TelemetrySampler(), telemetryManager.getSampleIntervalSec());
+
+    // The flushers keep their rate and retry soon when a write has failed.
+    // The housekeeping tasks run after a pause with jitter not to run at once.
+    if (sessionManager.isWriteBehindEnabled()) {
+      int flushInterval = sessionManager.getFlushInterval();
+      intervalTaskManager.startTask("sessionflusher", new SessionInfoFlusher(), newFlusherSchedule(flushInterval));
+    } else {
+      try {
+        sessionManager.flushDirtySessionInfo();
+      } catch (IOException ioe) {
+        Log.e("Session info flush error: " + ioe);
+      }
+    }
+
+    if (userManager.isStatusWriteBehindEnabled()) {
+      int statusFlushInterval = userManager.getStatusFlushInterval();
+      intervalTaskManager.startTask("userstatusflusher", new UserStatusFlusher(), newFlusherSchedule(statusFlushInterval));
+    } else {
+      try {
+        userManager.flushDirtyUserStatus();
+      } catch (IOException ioe) {
+        Log.e("User status flush error: " + ioe);
+      }
+    }
+
+    int sweepInterval = getConfigValueAsInteger("session_sweep_interval_sec", 60);
+    intervalTaskManager.startTask("sessionsweeper", new SessionSweeper(), sweepInterval);
+
+    int compactionInterval = getConfigValueAsInteger("timeline_compaction_interval_sec", 600);
+    intervalTaskManager.startTask("timelinecompactor", new TimelineLogCompactor(), newHousekeepingSchedule(compactionInterval));
+
+    int journalCompactionInterval = getConfigValueAsInteger("user_journal_compaction_interval_sec", 300);
+    intervalTaskManager.startTask("userdatacompactor", new UserDataCompactor(), newHousekeepingSchedule(journalCompactionInterval));
+
+    int reapInterval = getConfigValueAsInteger("async_task_reap_interval_sec", 60);
+    intervalTaskManager.startTask("asynctaskreaper", new AsyncTaskReaper(), newHousekeepingSchedule(reapInterval));
+  }
+
+  private TaskSchedule newFlusherSchedule(int intervalSec) {
+    TaskSchedule schedule = new TaskSchedule(TaskSchedule.Mode.FIXED_RATE, intervalSec);
+    schedule.setRetry(3, 1000);
+    return schedule;
+  }
+
+  private TaskSchedule newHousekeepingSchedule(int intervalSec) {
+    TaskSchedule schedule = new TaskSchedule(TaskSchedule.Mode.FIXED_DELAY, intervalSec);
+    schedule.setInitialDelayMillis(intervalSec * 1000L);
+    schedule.setJitterRatio(0.1);
+    schedule.setRetry(2, 5000);
+    return schedule;
   }
 
   /**
@@ -16,6 +16,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionMetrics;
+import com.takashiharano.webapp0.action.ActionRegistry;
 import com.takashiharano.webapp0.util.Log;
 
 @WebServlet(name = "MainServlet", urlPatterns = ("/main"))
@@ -31,15 +33,19 @@ public class MainServlet extends HttpServlet {
     ServletContext servletContext = getServletContext();
     ProcessContext context = new ProcessContext(request, response, servletContext);
 
-    context.onAccess();
-
+    long startTime = System.nanoTime();
+    boolean error = false;
     try {
+      // in the try block so that the log context is always unbound
+      context.onAccess();
       process(context);
     } catch (Throwable t) {
+      error = !(t instanceof NotAuthorizedException);
       DefaultErrorHandler.handle(context, t);
+    } finally {
+      recordMetrics(context, System.nanoTime() - startTime, error);
+      context.onAccessEnd();
     }
-
-    context.onAccessEnd();
   }
 
   protected void process(ProcessContext context) throws Throwable {
@@ -58,6 +64,13 @@ public class MainServlet extends HttpServlet {
       return;
     }
 
+    ActionRegistry.ActionEntry entry = ActionRegistry.getInstance().getEntry(actionName);
+    if ((entry != null) && !entry.isMethodAllowed(method)) {
+      context.setResponseCode(405); // Method Not Allowed
+      context.sendTextResponse("Method " + method + " is not allowed.");
+      return;
+    }
+
     if (action.isAuthRequired()) {
       if (!context.isAuthorized()) {
         String message = "Access denied. (action=" + actionName + ")";
@@ -70,6 +83,16 @@ public class MainServlet extends HttpServlet {
     action.process(context);
   }
 
+  /**
+   * Records the processing time and the result in the metrics of the action.
+   */
+  private void recordMetrics(ProcessContext context, long elapsedNanos, boolean error) {
+    ActionRegistry registry = ActionRegistry.getInstance();
+    ActionRegistry.ActionEntry entry = registry.getEntry(getActionName(context));
+    ActionMetrics metrics = (entry == null) ? registry.getUnknownActionMetrics() : entry.getMetrics();
+    metrics.record(elapsedNanos, context.getResponse().getStatus(), error);
+  }
+
   private String getActionName(ProcessContext context) {
     String actionName = context.getActionName();
     if (actionName == null) {
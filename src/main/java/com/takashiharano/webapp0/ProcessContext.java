@@ -9,15 +9,12 @@ import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.jar.Attributes;
-import java.util.jar.Manifest;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -55,9 +52,9 @@ public class ProcessContext {
   private String userAgent;
   private String localAddr;
   private String localHostName;
-  private HttpSession httpSession;
   private Cookie[] cookies;
   private HashMap<String, Object> info;
+  private RequestPrincipal principal;
 
   public ProcessContext(HttpServletRequest request, HttpServletResponse response, ServletContext servletContext) {
     try {
@@ -76,7 +73,6 @@ public class ProcessContext {
     this.userAgent = request.getHeader("User-Agent");
     this.localHostName = request.getLocalName();
     this.localAddr = request.getLocalAddr();
-    this.httpSession = request.getSession();
     this.cookies = request.getCookies();
     request.setAttribute("context", this);
   }
@@ -412,6 +408,36 @@ public class ProcessContext {
     response.setHeader(name, value);
   }
 
+  /**
+   * Sets the ETag and answers 304 Not Modified if the client already has the
+   * same entity.<br>
+   * The caller must not send the body when this returns true.
+   *
+   * @param etag
+   *          the ETag value including the double quotes
+   * @return true if 304 has been set
+   */
+  public boolean checkNotModified(String etag) {
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "no-cache");
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String[] tags = ifNoneMatch.split(",");
+    for (int i = 0; i < tags.length; i++) {
+      String tag = tags[i].trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals(etag) || tag.equals("*")) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Sends the plain text response to the client.
    *
@@ -709,12 +735,28 @@ public class ProcessContext {
   }
 
   /**
-   * Return HTTP session object.
+   * Return HTTP session object.<br>
+   * The session is not created by this method.
    *
-   * @return Servlet HttpSession
+   * @return Servlet HttpSession. null if the request has no session.
    */
   public HttpSession getHttpSession() {
-    return httpSession;
+    return request.getSession(false);
+  }
+
+  /**
+   * Return HTTP session object.<br>
+   * The session is never created when use_http_session is false.
+   *
+   * @param create
+   *          true to create a new session if the request has no session
+   * @return Servlet HttpSession. null if not available.
+   */
+  public HttpSession getHttpSession(boolean create) {
+    if (create && !getSessionManager().isHttpSessionEnabled()) {
+      return request.getSession(false);
+    }
+    return request.getSession(create);
   }
 
   /**
@@ -732,14 +774,7 @@ public class ProcessContext {
    * @return Session info
    */
   public SessionInfo getSessionInfo() {
-    String sessionId = getSessionId();
-    if (sessionId == null) {
-      return null;
-    }
-    AppManager appManager = getAppManager();
-    SessionManager sessionManager = appManager.getSessionManager();
-    SessionInfo sessionInfo = sessionManager.getSessionInfo(sessionId);
-    return sessionInfo;
+    return getPrincipal().getSessionInfo();
   }
 
   /**
@@ -748,16 +783,58 @@ public class ProcessContext {
    * @return User info
    */
   public User getUserInfo() {
-    SessionInfo sessionInfo = getSessionInfo();
-    if (sessionInfo == null) {
-      return null;
+    return getPrincipal().getUser();
+  }
+
+  /**
+   * Returns the session and the user of the current request.<br>
+   * They are resolved on the first call and reused until the principal is
+   * invalidated.
+   *
+   * @return the principal. RequestPrincipal.ANONYMOUS if not logged in.
+   */
+  public RequestPrincipal getPrincipal() {
+    if (principal == null) {
+      principal = resolvePrincipal(getSessionId());
     }
+    return principal;
+  }
 
-    String userId = sessionInfo.getUserId();
+  /**
+   * Sets the principal of the session that has just been created.
+   *
+   * @param sessionInfo
+   *          the new session info
+   */
+  public void setPrincipal(SessionInfo sessionInfo) {
+    principal = createPrincipal(sessionInfo);
+  }
+
+  /**
+   * Discards the resolved principal.<br>
+   * It will be resolved again from the session cookie on the next call.
+   */
+  public void invalidatePrincipal() {
+    principal = null;
+  }
+
+  private RequestPrincipal resolvePrincipal(String sessionId) {
+    if (sessionId == null) {
+      return RequestPrincipal.ANONYMOUS;
+    }
+    SessionManager sessionManager = getSessionManager();
+    SessionInfo sessionInfo = sessionManager.getSessionInfo(sessionId);
+    return createPrincipal(sessionInfo);
+  }
 
+  private RequestPrincipal createPrincipal(SessionInfo sessionInfo) {
+    if (sessionInfo == null) {
+      return RequestPrincipal.ANONYMOUS;
+    }
+    String userId = sessionInfo.getUserId();
     UserManager userManager = getUserManager();
     User userInfo = userManager.getUserInfo(userId);
-    return userInfo;
+    return new RequestPrincipal(sessionInfo, userInfo);
   }
 
   /**
@@ -975,7 +1052,11 @@ public class ProcessContext {
    */
   public String getConfigValue(String key, String defaultValue) {
     Props config = getConfig();
-    return config.getValue(key);
+    String value = config.getValue(key);
+    if ((value == null) || value.isEmpty()) {
+      return defaultValue;
+    }
+    return value;
   }
 
   /**
@@ -1166,15 +1247,7 @@ public class ProcessContext {
    *           If an IO error occurs
    */
   public String getManifestEntry(String name) throws IOException {
-    String value = null;
-    try (InputStream is = servletContext.getResourceAsStream("/META-INF/MANIFEST.MF")) {
-      Manifest manifest = new Manifest(is);
-      Attributes attributes = manifest.getMainAttributes();
-      value = attributes.getValue(name);
-    } catch (IOException ioe) {
-      throw ioe;
-    }
-    return value;
+    return getAppManager().getManifestEntry(name);
   }
 
   /**
@@ -1183,13 +1256,7 @@ public class ProcessContext {
    * @return APP version
    */
   public String getAppVersion() {
-    String version;
-    try {
-      version = getManifestEntry("App-Version");
-    } catch (IOException ioe) {
-      version = "";
-    }
-    return version;
+    return getAppManager().getAppVersion();
   }
 
   /**
@@ -1198,7 +1265,6 @@ public class ProcessContext {
   public void onAccess() {
     Log.setContext(this);
     long timestamp = System.currentTimeMillis();
-    setSessionCookieMaxAge();
     SessionManager sessionManager = getSessionManager();
     sessionManager.onAccess(this, timestamp);
     UserManager userManager = getUserManager();
@@ -1218,11 +1284,7 @@ public class ProcessContext {
    * @return true if the context has a valid session
    */
   public boolean isAuthorized() {
-    SessionInfo sessionInfo = getSessionInfo();
-    if (sessionInfo == null) {
-      return false;
-    }
-    return true;
+    return getPrincipal().isAuthenticated();
   }
 
   /**
@@ -1233,7 +1295,7 @@ public class ProcessContext {
     if (sessionId == null) {
       return;
     }
-    int sessionTimeoutSec = getConfigValueAsInteger("session_timeout_sec", 86400);
+    int sessionTimeoutSec = getSessionManager().getSessionTimeout();
     setSessionCookieMaxAge(sessionId, sessionTimeoutSec);
   }
 
@@ -0,0 +1,57 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0;
+
+import com.takashiharano.webapp0.session.SessionInfo;
+import com.takashiharano.webapp0.user.User;
+
+/**
+ * The session and the user resolved for a request.<br>
+ * The snapshot is created once per request by ProcessContext and is replaced
+ * only on login and logout.
+ */
+public class RequestPrincipal {
+
+  public static final RequestPrincipal ANONYMOUS = new RequestPrincipal(null, null);
+
+  private final SessionInfo sessionInfo;
+  private final User user;
+
+  public RequestPrincipal(SessionInfo sessionInfo, User user) {
+    this.sessionInfo = sessionInfo;
+    this.user = user;
+  }
+
+  public SessionInfo getSessionInfo() {
+    return sessionInfo;
+  }
+
+  public User getUser() {
+    return user;
+  }
+
+  /**
+   * Returns the user id of the session.
+   *
+   * @return the user id. null if not logged in.
+   */
+  public String getUserId() {
+    if (user == null) {
+      return null;
+    }
+    return user.getUserId();
+  }
+
+  /**
+   * Returns if the request has a valid session.
+   *
+   * @return true if the session is valid
+   */
+  public boolean isAuthenticated() {
+    return sessionInfo != null;
+  }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.takashiharano.webapp0.async.AsyncTask;
+import com.takashiharano.webapp0.async.AsyncTaskManager;
+
+/**
+ * The Server-Sent Events stream of the async task progress.<br>
+ * The request is put in async mode and handed to the TaskEventHub, so the
+ * container thread returns at once. The stream does not go through onAccess()
+ * and does not update the session or the user status.
+ */
+@WebServlet(name = "TaskEventServlet", urlPatterns = ("/taskevents"), asyncSupported = true)
+public class TaskEventServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 5018265630717416874L;
+
+  private static final int DEFAULT_TIMEOUT_SEC = 600;
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    ProcessContext context = new ProcessContext(request, response, getServletContext());
+    if (!context.isAuthorized()) {
+      // EventSource does not reconnect on an error status.
+      response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+      return;
+    }
+
+    String ownerId = context.getSessionId();
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    response.setHeader("X-Accel-Buffering", "no");
+
+    // The client reconnects after the timeout and gets the current state.
+    int timeoutSec = context.getConfigValueAsInteger("task_event_timeout_sec", DEFAULT_TIMEOUT_SEC);
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(timeoutSec * 1000L);
+
+    AsyncTaskManager asyncTaskManager = context.getAsyncManager();
+    List<AsyncTask> tasks = asyncTaskManager.getTasks(ownerId);
+    asyncTaskManager.getTaskEventHub().subscribe(ownerId, asyncContext, tasks);
+  }
+
+}
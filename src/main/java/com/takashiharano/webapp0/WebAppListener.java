@@ -16,7 +16,7 @@ public class WebAppListener implements ServletContextListener, HttpSessionListen
 
   @Override
   public void contextInitialized(ServletContextEvent sce) {
-    AppManager.getInstance().onStart();
+    AppManager.getInstance().onStart(sce.getServletContext());
   }
 
   @Override
@@ -5,42 +5,41 @@
  */
 package com.takashiharano.webapp0.action;
 
-import com.takashiharano.webapp0.AppManager;
 import com.takashiharano.webapp0.ProcessContext;
+import com.takashiharano.webapp0.util.Log;
 
 public abstract class Action {
 
   protected boolean authRequired = true;
 
+  /**
+   * Returns the action for the name.<br>
+   * The action is resolved through the ActionRegistry.
+   *
+   * @param context
+   *          Process Context
+   * @param actionName
+   *          the action name
+   * @return the action. null if not found.
+   */
   public static Action getActionInstance(ProcessContext context, String actionName) {
-    String basePkgName = AppManager.getBasePackageName();
-    String pkgName = basePkgName + ".action";
-    String[] packages = { "", "system", "system.users", "sample", "sample.async" };
-
-    actionName = actionName.substring(0, 1).toUpperCase() + actionName.substring(1);
-    for (int i = 0; i < packages.length; i++) {
-      String subPackage = packages[i];
-      if (!subPackage.equals("")) {
-        subPackage += ".";
-      }
-      String classFullName = pkgName + "." + subPackage + actionName + "Action";
-      Action action = getBean(classFullName);
-      if (action != null) {
-        action.init(context);
-        return action;
-      }
+    ActionRegistry.ActionEntry entry = ActionRegistry.getInstance().getEntry(actionName);
+    if (entry == null) {
+      return null;
     }
-    return null;
-  }
 
-  private static Action getBean(String className) {
+    Action action;
     try {
-      Class<?> c = Class.forName(className);
-      Action bean = (Action) c.getDeclaredConstructor().newInstance();
-      return bean;
+      action = entry.getInstance();
     } catch (Exception e) {
+      Log.e("Action instantiation error: " + actionName, e);
       return null;
     }
+    if (entry.getResponseType() != null) {
+      context.setResponseType(entry.getResponseType());
+    }
+    action.init(context);
+    return action;
   }
 
   public boolean isAuthRequired() {
@@ -0,0 +1,57 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.action;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The metadata of an action.<br>
+ * This is read once when the ActionRegistry is built.
+ *
+ * <pre>
+ * &#64;ActionConfig(authRequired = false, responseType = "html", methods = { "GET" }, stateless = true)
+ * public class XxxAction extends Action {
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ActionConfig {
+
+  /**
+   * Whether the action requires a logged-in session.
+   *
+   * @return true if the authentication is required
+   */
+  boolean authRequired() default true;
+
+  /**
+   * The response type set to the context before the action is processed.<br>
+   * "text", "html" or "json". Empty means not specified.
+   *
+   * @return the response type
+   */
+  String responseType() default "";
+
+  /**
+   * The HTTP methods accepted by the action. Empty means all methods accepted by
+   * the servlet.
+   *
+   * @return the method names
+   */
+  String[] methods() default {};
+
+  /**
+   * Whether the action has no per-request state.<br>
+   * A stateless action is instantiated once and shared by all requests.
+   *
+   * @return true if the instance can be shared
+   */
+  boolean stateless() default false;
+
+}
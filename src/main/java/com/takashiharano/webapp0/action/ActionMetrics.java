@@ -0,0 +1,79 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.action;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.takashiharano.webapp0.util.Histogram;
+
+/**
+ * The processing time and the results of an action.<br>
+ * The time is recorded in microseconds. The responses are counted by the
+ * status class (1xx to 5xx), and the exceptions that reached the error
+ * handler are counted as errors. record() does not allocate and does not
+ * block, so it is called on every request.
+ */
+public class ActionMetrics {
+  public static final int STATUS_CLASS_COUNT = 6;
+
+  private Histogram latency;
+  private AtomicLongArray statusCounts;
+  private AtomicLong errorCount;
+
+  public ActionMetrics() {
+    latency = new Histogram();
+    statusCounts = new AtomicLongArray(STATUS_CLASS_COUNT);
+    errorCount = new AtomicLong();
+  }
+
+  /**
+   * Records a request.
+   *
+   * @param elapsedNanos
+   *          the processing time in nanoseconds
+   * @param status
+   *          the HTTP status code of the response
+   * @param error
+   *          true if the action threw an exception
+   */
+  public void record(long elapsedNanos, int status, boolean error) {
+    latency.record(elapsedNanos / 1000);
+    int statusClass = status / 100;
+    if ((statusClass < 1) || (statusClass >= STATUS_CLASS_COUNT)) {
+      statusClass = 0;
+    }
+    statusCounts.incrementAndGet(statusClass);
+    if (error) {
+      errorCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the histogram of the processing time in microseconds.
+   *
+   * @return the histogram
+   */
+  public Histogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * Returns the number of the responses of the status class.
+   *
+   * @param statusClass
+   *          1 to 5 for 1xx to 5xx. 0 for an unknown status.
+   * @return the count
+   */
+  public long getStatusCount(int statusClass) {
+    return statusCounts.get(statusClass);
+  }
+
+  public long getErrorCount() {
+    return errorCount.get();
+  }
+
+}
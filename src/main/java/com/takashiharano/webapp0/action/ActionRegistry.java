@@ -0,0 +1,378 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.action;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.util.Log;
+
+/**
+ * The table of the actions.<br>
+ * The action classes in the action packages are looked up once when the
+ * registry is built, so resolving an action name on a request is a map lookup.
+ * <br>
+ * A name that is not in the table is looked up once by the class file in the
+ * action packages, since the class scanning may not be able to list the
+ * classes on some containers (vfs: or war: URLs). The result is kept, so
+ * an unknown name is not looked up again.
+ */
+public class ActionRegistry {
+
+  private static final String[] ACTION_PACKAGES = { "", "system", "system.users", "sample", "sample.async" };
+  private static final String ACTION_CLASS_SUFFIX = "Action";
+  private static final int MAX_UNKNOWN_NAMES = 1024;
+
+  private static volatile ActionRegistry instance;
+
+  private Map<String, ActionEntry> entries;
+  private Set<String> unknownNames;
+  private ActionMetrics unknownActionMetrics;
+
+  private ActionRegistry() {
+    entries = build();
+    unknownNames = ConcurrentHashMap.newKeySet();
+    unknownActionMetrics = new ActionMetrics();
+  }
+
+  public static ActionRegistry getInstance() {
+    if (instance == null) {
+      synchronized (ActionRegistry.class) {
+        if (instance == null) {
+          instance = new ActionRegistry();
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the entry of the action.
+   *
+   * @param actionName
+   *          the action name. "xxx" or "Xxx" for XxxAction.
+   * @return the entry. null if the action does not exist.
+   */
+  public ActionEntry getEntry(String actionName) {
+    if (actionName == null) {
+      return null;
+    }
+    ActionEntry entry = entries.get(actionName);
+    if ((entry != null) || unknownNames.contains(actionName)) {
+      return entry;
+    }
+    return lookup(actionName);
+  }
+
+  /**
+   * Looks up the class of the action that is not in the table.<br>
+   * The class file is checked as a resource before loading it, so a missing
+   * class does not cost an exception.
+   */
+  private synchronized ActionEntry lookup(String actionName) {
+    ActionEntry entry = entries.get(actionName);
+    if ((entry != null) || unknownNames.contains(actionName)) {
+      return entry;
+    }
+    if (isValidName(actionName)) {
+      String pkgName = AppManager.getBasePackageName() + ".action";
+      ClassLoader classLoader = ActionRegistry.class.getClassLoader();
+      String className = actionName.substring(0, 1).toUpperCase() + actionName.substring(1) + ACTION_CLASS_SUFFIX;
+      for (int i = 0; i < ACTION_PACKAGES.length; i++) {
+        String packageName = pkgName;
+        if (!ACTION_PACKAGES[i].equals("")) {
+          packageName += "." + ACTION_PACKAGES[i];
+        }
+        String path = packageName.replace('.', '/') + "/" + className + ".class";
+        if (classLoader.getResource(path) == null) {
+          continue;
+        }
+        register(entries, classLoader, packageName, className);
+        entry = entries.get(actionName);
+        if (entry != null) {
+          Log.i("Action registered on lookup: " + packageName + "." + className);
+          return entry;
+        }
+      }
+    }
+    // The names come from the clients, so the set is bounded.
+    if (unknownNames.size() >= MAX_UNKNOWN_NAMES) {
+      unknownNames.clear();
+    }
+    unknownNames.add(actionName);
+    return null;
+  }
+
+  private boolean isValidName(String name) {
+    if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+      return false;
+    }
+    for (int i = 1; i < name.length(); i++) {
+      if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the registered actions sorted by name.
+   *
+   * @return the entries
+   */
+  public List<ActionEntry> getEntries() {
+    Set<ActionEntry> set = new HashSet<>(entries.values());
+    List<ActionEntry> list = new ArrayList<>(set);
+    list.sort((a, b) -> a.getName().compareTo(b.getName()));
+    return list;
+  }
+
+  /**
+   * Returns the metrics of the requests for the actions that do not exist.<br>
+   * The unknown names share one entry so that a client cannot add entries.
+   *
+   * @return the metrics
+   */
+  public ActionMetrics getUnknownActionMetrics() {
+    return unknownActionMetrics;
+  }
+
+  /**
+   * Returns the number of the registered actions.
+   *
+   * @return the number of the actions
+   */
+  public int size() {
+    return entries.size() / 2;
+  }
+
+  private Map<String, ActionEntry> build() {
+    long t0 = System.currentTimeMillis();
+    String pkgName = AppManager.getBasePackageName() + ".action";
+    ClassLoader classLoader = ActionRegistry.class.getClassLoader();
+    Map<String, ActionEntry> map = new ConcurrentHashMap<>();
+    for (int i = 0; i < ACTION_PACKAGES.length; i++) {
+      String subPackage = ACTION_PACKAGES[i];
+      String packageName = pkgName;
+      if (!subPackage.equals("")) {
+        packageName += "." + subPackage;
+      }
+      List<String> classNames = listClassNames(classLoader, packageName);
+      for (int j = 0; j < classNames.size(); j++) {
+        String className = classNames.get(j);
+        register(map, classLoader, packageName, className);
+      }
+    }
+    long elapsed = System.currentTimeMillis() - t0;
+    Log.i((map.size() / 2) + " actions registered (" + elapsed + "ms)");
+    return map;
+  }
+
+  private void register(Map<String, ActionEntry> map, ClassLoader classLoader, String packageName, String className) {
+    if (!className.endsWith(ACTION_CLASS_SUFFIX) || (className.length() == ACTION_CLASS_SUFFIX.length())) {
+      return;
+    }
+    String baseName = className.substring(0, className.length() - ACTION_CLASS_SUFFIX.length());
+    String name = baseName.substring(0, 1).toUpperCase() + baseName.substring(1);
+    String lowerName = baseName.substring(0, 1).toLowerCase() + baseName.substring(1);
+    if (map.containsKey(name)) {
+      // The earlier package takes precedence.
+      return;
+    }
+
+    Class<?> c;
+    try {
+      c = Class.forName(packageName + "." + className, false, classLoader);
+    } catch (ClassNotFoundException | LinkageError e) {
+      Log.e("Action class load error: " + className + ": " + e);
+      return;
+    }
+    if (!Action.class.isAssignableFrom(c) || Modifier.isAbstract(c.getModifiers())) {
+      return;
+    }
+
+    ActionEntry entry;
+    try {
+      @SuppressWarnings("unchecked")
+      Constructor<? extends Action> constructor = ((Class<? extends Action>) c).getDeclaredConstructor();
+      entry = new ActionEntry(name, constructor, c.getAnnotation(ActionConfig.class));
+    } catch (Exception e) {
+      Log.e("Action register error: " + className + ": " + e);
+      return;
+    }
+    map.put(name, entry);
+    map.put(lowerName, entry);
+  }
+
+  private List<String> listClassNames(ClassLoader classLoader, String packageName) {
+    List<String> classNames = new ArrayList<>();
+    String path = packageName.replace('.', '/');
+    try {
+      Enumeration<URL> resources = classLoader.getResources(path);
+      while (resources.hasMoreElements()) {
+        URL url = resources.nextElement();
+        String protocol = url.getProtocol();
+        if ("file".equals(protocol)) {
+          listClassNamesInDir(url, classNames);
+        } else if ("jar".equals(protocol)) {
+          listClassNamesInJar(url, path, classNames);
+        }
+      }
+    } catch (IOException ioe) {
+      Log.e("Action lookup error: " + packageName + ": " + ioe);
+    }
+    return classNames;
+  }
+
+  private void listClassNamesInDir(URL url, List<String> classNames) throws IOException {
+    String dirPath = URLDecoder.decode(url.getFile(), "UTF-8");
+    File[] files = new File(dirPath).listFiles();
+    if (files == null) {
+      return;
+    }
+    for (int i = 0; i < files.length; i++) {
+      String fileName = files[i].getName();
+      addClassName(fileName, classNames);
+    }
+  }
+
+  private void listClassNamesInJar(URL url, String path, List<String> classNames) throws IOException {
+    URLConnection conn = url.openConnection();
+    if (!(conn instanceof JarURLConnection)) {
+      return;
+    }
+    String prefix = path + "/";
+    JarFile jarFile = ((JarURLConnection) conn).getJarFile();
+    Enumeration<JarEntry> jarEntries = jarFile.entries();
+    while (jarEntries.hasMoreElements()) {
+      String entryName = jarEntries.nextElement().getName();
+      if (!entryName.startsWith(prefix)) {
+        continue;
+      }
+      String fileName = entryName.substring(prefix.length());
+      if (fileName.indexOf('/') >= 0) {
+        continue;
+      }
+      addClassName(fileName, classNames);
+    }
+  }
+
+  private void addClassName(String fileName, List<String> classNames) {
+    if (!fileName.endsWith(".class") || (fileName.indexOf('$') >= 0)) {
+      return;
+    }
+    String className = fileName.substring(0, fileName.length() - ".class".length());
+    classNames.add(className);
+  }
+
+  /**
+   * A registered action.
+   */
+  public static class ActionEntry {
+    private String name;
+    private Constructor<? extends Action> constructor;
+    private boolean authRequired;
+    private String responseType;
+    private Set<String> methods;
+    private Action sharedInstance;
+    private ActionMetrics metrics;
+
+    public ActionEntry(String name, Constructor<? extends Action> constructor, ActionConfig config) throws Exception {
+      this.name = name;
+      this.constructor = constructor;
+      this.authRequired = true;
+      this.methods = new HashSet<>();
+      this.metrics = new ActionMetrics();
+      boolean stateless = false;
+      if (config != null) {
+        authRequired = config.authRequired();
+        if (!"".equals(config.responseType())) {
+          responseType = config.responseType();
+        }
+        String[] m = config.methods();
+        for (int i = 0; i < m.length; i++) {
+          methods.add(m[i]);
+        }
+        stateless = config.stateless();
+      }
+      if (stateless) {
+        sharedInstance = createInstance();
+      }
+    }
+
+    /**
+     * Returns an instance of the action.<br>
+     * A stateless action returns the shared instance.
+     *
+     * @return the action instance
+     * @throws Exception
+     *           if the action cannot be instantiated
+     */
+    public Action getInstance() throws Exception {
+      if (sharedInstance != null) {
+        return sharedInstance;
+      }
+      return createInstance();
+    }
+
+    private Action createInstance() throws Exception {
+      Action action = constructor.newInstance();
+      action.setAuthRequired(authRequired);
+      return action;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isAuthRequired() {
+      return authRequired;
+    }
+
+    public String getResponseType() {
+      return responseType;
+    }
+
+    /**
+     * Returns whether the action accepts the HTTP method.
+     *
+     * @param method
+     *          the method name
+     * @return true if the method is allowed
+     */
+    public boolean isMethodAllowed(String method) {
+      if (methods.isEmpty()) {
+        return true;
+      }
+      return methods.contains(method);
+    }
+
+    public boolean isStateless() {
+      return sharedInstance != null;
+    }
+
+    public ActionMetrics getMetrics() {
+      return metrics;
+    }
+  }
+
+}
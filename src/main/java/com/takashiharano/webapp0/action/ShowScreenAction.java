@@ -11,14 +11,9 @@ import com.takashiharano.webapp0.logic.ShowScreenLogic;
 /**
  * Show screen.
  */
+@ActionConfig(authRequired = false, responseType = "html", stateless = true)
 public class ShowScreenAction extends Action {
 
-  @Override
-  protected void init(ProcessContext context) {
-    setAuthRequired(false);
-    context.setResponseType("html");
-  }
-
   public void process(ProcessContext context) throws Exception {
     String screen = context.getRequestParameter("screen");
     if (screen == null) {
@@ -7,8 +7,10 @@ package com.takashiharano.webapp0.action.sample;
 
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.util.Log;
 
+@ActionConfig(stateless = true)
 public class HelloAction extends Action {
 
   @Override
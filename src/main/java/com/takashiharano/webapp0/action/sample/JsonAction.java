@@ -13,7 +13,9 @@ import javax.servlet.http.HttpServletRequest;
 import com.libutil.JsonBuilder;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 
+@ActionConfig(stateless = true)
 public class JsonAction extends Action {
 
   @Override
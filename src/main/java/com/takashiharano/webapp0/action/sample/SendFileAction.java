@@ -7,7 +7,9 @@ package com.takashiharano.webapp0.action.sample;
 
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 
+@ActionConfig(stateless = true)
 public class SendFileAction extends Action {
 
   @Override
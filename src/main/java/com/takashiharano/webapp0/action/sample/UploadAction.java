@@ -16,8 +16,10 @@ import com.libutil.FileUtil;
 import com.takashiharano.webapp0.AppManager;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.util.Log;
 
+@ActionConfig(stateless = true)
 public class UploadAction extends Action {
 
   @Override
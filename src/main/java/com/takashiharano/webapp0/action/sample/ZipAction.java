@@ -8,7 +8,9 @@ package com.takashiharano.webapp0.action.sample;
 import com.libutil.zip.ZipUtil;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 
+@ActionConfig(stateless = true)
 public class ZipAction extends Action {
 
   @Override
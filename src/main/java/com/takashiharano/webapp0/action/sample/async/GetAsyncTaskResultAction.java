@@ -8,10 +8,12 @@ package com.takashiharano.webapp0.action.sample.async;
 import com.libutil.JsonBuilder;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.async.AsyncTask;
 import com.takashiharano.webapp0.async.AsyncTaskManager;
 import com.takashiharano.webapp0.async.AsyncTaskResult;
 
+@ActionConfig(stateless = true)
 public class GetAsyncTaskResultAction extends Action {
 
   @Override
@@ -8,10 +8,12 @@ package com.takashiharano.webapp0.action.sample.async;
 import com.libutil.JsonBuilder;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.async.AsyncTaskManager;
 import com.takashiharano.webapp0.async.task.SampleAsynkTask;
 import com.takashiharano.webapp0.util.Log;
 
+@ActionConfig(stateless = true)
 public class StartAsyncTaskAction extends Action {
 
   @Override
@@ -22,8 +24,11 @@ public class StartAsyncTaskAction extends Action {
 
     SampleAsynkTask task = new SampleAsynkTask(context, n);
     String taskId = asyncTaskManager.registerTask(task);
+    if (!asyncTaskManager.executeTask(taskId)) {
+      context.sendJsonResponse("TOO_MANY_TASKS", null);
+      return;
+    }
     Log.i("AsyncTask start: taskId=" + taskId);
-    task.exec();
 
     JsonBuilder jb = new JsonBuilder();
     jb.append("taskId", taskId);
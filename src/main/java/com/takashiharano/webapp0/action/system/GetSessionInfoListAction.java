@@ -14,12 +14,14 @@ import com.libutil.DateTime;
 import com.libutil.JsonBuilder;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.session.SessionInfo;
 import com.takashiharano.webapp0.session.SessionManager;
 import com.takashiharano.webapp0.session.SessionTimelineLog;
 import com.takashiharano.webapp0.user.User;
 import com.takashiharano.webapp0.user.UserManager;
 
+@ActionConfig(stateless = true)
 public class GetSessionInfoListAction extends Action {
 
   @Override
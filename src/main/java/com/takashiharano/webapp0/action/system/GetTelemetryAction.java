@@ -0,0 +1,158 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.action.system;
+
+import java.util.List;
+
+import com.libutil.JsonBuilder;
+import com.takashiharano.webapp0.ProcessContext;
+import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
+import com.takashiharano.webapp0.telemetry.JvmSample;
+import com.takashiharano.webapp0.telemetry.SampleRing;
+import com.takashiharano.webapp0.telemetry.TelemetryManager;
+
+/**
+ * Returns the JVM samples of a ring.<br>
+ * Parameters:
+ * <ul>
+ * <li>res: the resolution in seconds. the finest one if omitted.</li>
+ * <li>since: returns only the samples newer than this time (unix millis).</li>
+ * </ul>
+ * A sample is an array in the order of "columns". pool_used, gc_count and
+ * gc_time are arrays in the order of "pools" and "collectors".
+ */
+@ActionConfig(stateless = true)
+public class GetTelemetryAction extends Action {
+
+  private static final String[] COLUMNS = { "time", "heap_used", "heap_committed", "heap_max", "nonheap_used", "nonheap_committed", "threads", "daemon_threads", "peak_threads", "process_cpu", "system_cpu", "load_average", "classes", "total_loaded_classes", "unloaded_classes", "allocated_bytes", "pool_used", "gc_count", "gc_time" };
+
+  @Override
+  public void process(ProcessContext context) throws Exception {
+    if (!context.hasPermission("sysadmin")) {
+      context.sendJsonResponse("FORBIDDEN:GetTelemetry", null);
+      return;
+    }
+
+    TelemetryManager telemetryManager = TelemetryManager.getInstance();
+    SampleRing[] rings = telemetryManager.getRings();
+    if (rings == null) {
+      context.sendJsonResponse("NOT_READY", null);
+      return;
+    }
+
+    int resolutionSec = context.getRequestParameterAsInteger("res", rings[0].getResolutionSec());
+    SampleRing ring = telemetryManager.getRing(resolutionSec);
+    if (ring == null) {
+      context.sendJsonResponse("NO_SUCH_RESOLUTION", null);
+      return;
+    }
+    long since = context.getRequestParameterAsLong("since", 0L);
+
+    JsonBuilder jb = new JsonBuilder();
+    jb.append("resolution", ring.getResolutionSec());
+    jb.append("span", ring.getSpanSec());
+
+    jb.openList("resolutions");
+    for (int i = 0; i < rings.length; i++) {
+      jb.appendListElementAsObject(Integer.toString(rings[i].getResolutionSec()));
+    }
+    jb.closeList();
+
+    List<String> poolNames = telemetryManager.getPoolNames();
+    jb.openList("pools");
+    for (int i = 0; i < poolNames.size(); i++) {
+      JsonBuilder jb1 = new JsonBuilder();
+      jb1.append("name", poolNames.get(i));
+      jb1.append("heap", telemetryManager.isHeapPool(i));
+      jb.appendListElementAsObject(jb1.toString());
+    }
+    jb.closeList();
+
+    List<String> collectorNames = telemetryManager.getCollectorNames();
+    jb.openList("collectors");
+    for (int i = 0; i < collectorNames.size(); i++) {
+      JsonBuilder jb1 = new JsonBuilder();
+      jb1.append("name", collectorNames.get(i));
+      jb.appendListElementAsObject(jb1.toString());
+    }
+    jb.closeList();
+
+    jb.openList("columns");
+    for (int i = 0; i < COLUMNS.length; i++) {
+      jb.appendListElementAsObject("\"" + COLUMNS[i] + "\"");
+    }
+    jb.closeList();
+
+    List<JvmSample> samples = ring.getSamples(since);
+    jb.openList("samples");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < samples.size(); i++) {
+      sb.setLength(0);
+      buildSampleArray(sb, samples.get(i), poolNames.size(), collectorNames.size());
+      jb.appendListElementAsObject(sb.toString());
+    }
+    jb.closeList();
+
+    String json = jb.toString();
+    context.sendJsonResponse("OK", json);
+  }
+
+  private void buildSampleArray(StringBuilder sb, JvmSample sample, int poolCount, int collectorCount) {
+    sb.append('[');
+    sb.append(sample.getTime()).append(',');
+    sb.append(sample.getHeapUsed()).append(',');
+    sb.append(sample.getHeapCommitted()).append(',');
+    sb.append(sample.getHeapMax()).append(',');
+    sb.append(sample.getNonHeapUsed()).append(',');
+    sb.append(sample.getNonHeapCommitted()).append(',');
+    sb.append(sample.getThreadCount()).append(',');
+    sb.append(sample.getDaemonThreadCount()).append(',');
+    sb.append(sample.getPeakThreadCount()).append(',');
+    appendDouble(sb, sample.getProcessCpuLoad());
+    sb.append(',');
+    appendDouble(sb, sample.getSystemCpuLoad());
+    sb.append(',');
+    appendDouble(sb, sample.getLoadAverage());
+    sb.append(',');
+    sb.append(sample.getLoadedClassCount()).append(',');
+    sb.append(sample.getTotalLoadedClassCount()).append(',');
+    sb.append(sample.getUnloadedClassCount()).append(',');
+    sb.append(sample.getAllocatedBytes()).append(',');
+
+    sb.append('[');
+    for (int i = 0; i < poolCount; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(sample.getPoolUsed(i));
+    }
+    sb.append("],[");
+    for (int i = 0; i < collectorCount; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(sample.getGcCount(i));
+    }
+    sb.append("],[");
+    for (int i = 0; i < collectorCount; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(sample.getGcTime(i));
+    }
+    sb.append("]]");
+  }
+
+  private void appendDouble(StringBuilder sb, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      sb.append(-1);
+    } else {
+      sb.append(value);
+    }
+  }
+
+}
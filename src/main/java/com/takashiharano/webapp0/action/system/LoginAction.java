@@ -9,19 +9,16 @@ import java.io.IOException;
 
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.session.SessionInfo;
 import com.takashiharano.webapp0.session.SessionManager;
 import com.takashiharano.webapp0.user.UserManager;
 import com.takashiharano.webapp0.user.UserStatus;
 import com.takashiharano.webapp0.util.Log;
 
+@ActionConfig(authRequired = false, stateless = true)
 public class LoginAction extends Action {
 
-  @Override
-  protected void init(ProcessContext context) {
-    setAuthRequired(false);
-  }
-
   @Override
   public void process(ProcessContext context) throws Exception {
     String status = login(context);
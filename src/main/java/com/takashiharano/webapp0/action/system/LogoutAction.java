@@ -8,15 +8,12 @@ package com.takashiharano.webapp0.action.system;
 import com.libutil.StrUtil;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.session.SessionManager;
 
+@ActionConfig(authRequired = false, stateless = true)
 public class LogoutAction extends Action {
 
-  @Override
-  protected void init(ProcessContext context) {
-    setAuthRequired(false);
-  }
-
   @Override
   public void process(ProcessContext context) throws Exception {
     String targetSid = context.getRequestParameter("sid");
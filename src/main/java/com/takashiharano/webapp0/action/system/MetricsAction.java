@@ -0,0 +1,168 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.action.system;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.ProcessContext;
+import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
+import com.takashiharano.webapp0.action.ActionMetrics;
+import com.takashiharano.webapp0.action.ActionRegistry;
+import com.takashiharano.webapp0.session.SessionManager;
+import com.takashiharano.webapp0.user.UserManager;
+import com.takashiharano.webapp0.util.Histogram;
+
+/**
+ * Returns the action metrics in the Prometheus text format.<br>
+ * A scraper on the same host can read it without logging in. From any other
+ * address, the sysadmin permission is required. A request forwarded by a
+ * proxy is not regarded as local.
+ *
+ * <pre>
+ * webapp0_action_duration_seconds{action="Login",quantile="0.99"} 0.012
+ * webapp0_action_duration_seconds_sum{action="Login"} 0.53
+ * webapp0_action_duration_seconds_count{action="Login"} 120
+ * webapp0_action_responses_total{action="Login",code="2xx"} 118
+ * webapp0_action_errors_total{action="Login"} 2
+ * webapp0_session_lock_contention_total 0
+ * </pre>
+ */
+@ActionConfig(authRequired = false, methods = { "GET" }, stateless = true)
+public class MetricsAction extends Action {
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+  private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+  private static final String UNKNOWN_ACTION = "_unknown";
+
+  @Override
+  public void process(ProcessContext context) throws Exception {
+    if (!isLocalAccess(context) && !(context.isAuthorized() && context.hasPermission("sysadmin"))) {
+      context.setResponseCode(403);
+      context.sendTextResponse("FORBIDDEN");
+      return;
+    }
+
+    String prefix = AppManager.getModuleName() + "_action_";
+    ActionRegistry registry = ActionRegistry.getInstance();
+    List<ActionRegistry.ActionEntry> entries = registry.getEntries();
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("# HELP ").append(prefix).append("duration_seconds The processing time of the action.\n");
+    sb.append("# TYPE ").append(prefix).append("duration_seconds summary\n");
+    for (int i = 0; i < entries.size(); i++) {
+      ActionRegistry.ActionEntry entry = entries.get(i);
+      appendDuration(sb, prefix, entry.getName(), entry.getMetrics());
+    }
+    appendDuration(sb, prefix, UNKNOWN_ACTION, registry.getUnknownActionMetrics());
+
+    sb.append("# HELP ").append(prefix).append("duration_seconds_max The max processing time of the action.\n");
+    sb.append("# TYPE ").append(prefix).append("duration_seconds_max gauge\n");
+    for (int i = 0; i < entries.size(); i++) {
+      ActionRegistry.ActionEntry entry = entries.get(i);
+      appendMax(sb, prefix, entry.getName(), entry.getMetrics());
+    }
+    appendMax(sb, prefix, UNKNOWN_ACTION, registry.getUnknownActionMetrics());
+
+    sb.append("# HELP ").append(prefix).append("responses_total The responses by status class.\n");
+    sb.append("# TYPE ").append(prefix).append("responses_total counter\n");
+    for (int i = 0; i < entries.size(); i++) {
+      ActionRegistry.ActionEntry entry = entries.get(i);
+      appendResponses(sb, prefix, entry.getName(), entry.getMetrics());
+    }
+    appendResponses(sb, prefix, UNKNOWN_ACTION, registry.getUnknownActionMetrics());
+
+    sb.append("# HELP ").append(prefix).append("errors_total The exceptions thrown by the action.\n");
+    sb.append("# TYPE ").append(prefix).append("errors_total counter\n");
+    for (int i = 0; i < entries.size(); i++) {
+      ActionRegistry.ActionEntry entry = entries.get(i);
+      appendLine(sb, prefix, "errors_total", entry.getName(), null, Long.toString(entry.getMetrics().getErrorCount()));
+    }
+    appendLine(sb, prefix, "errors_total", UNKNOWN_ACTION, null, Long.toString(registry.getUnknownActionMetrics().getErrorCount()));
+
+    appendLockContention(sb);
+
+    context.sendResponse(CONTENT_TYPE, sb.toString());
+  }
+
+  /**
+   * Appends the number of the file writes that waited for another thread
+   * writing the same user's file.
+   */
+  private void appendLockContention(StringBuilder sb) {
+    String prefix = AppManager.getModuleName() + "_";
+    AppManager appManager = AppManager.getInstance();
+    SessionManager sessionManager = appManager.getSessionManager();
+    if (sessionManager != null) {
+      appendCounter(sb, prefix + "session_lock_contention_total", "The session info writes that waited for the user lock.", sessionManager.getLockContentionCount());
+    }
+    UserManager userManager = appManager.getUserManager();
+    if (userManager != null) {
+      appendCounter(sb, prefix + "user_status_lock_contention_total", "The user status writes that waited for the user lock.", userManager.getLockContentionCount());
+    }
+  }
+
+  private void appendCounter(StringBuilder sb, String name, String help, long value) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(" counter\n");
+    sb.append(name).append(' ').append(value).append('\n');
+  }
+
+  private void appendDuration(StringBuilder sb, String prefix, String actionName, ActionMetrics metrics) {
+    Histogram latency = metrics.getLatency();
+    for (int i = 0; i < QUANTILES.length; i++) {
+      double q = QUANTILES[i];
+      String value = toSeconds(latency.getPercentile(q * 100));
+      appendLine(sb, prefix, "duration_seconds", actionName, "quantile=\"" + q + "\"", value);
+    }
+    appendLine(sb, prefix, "duration_seconds_sum", actionName, null, toSeconds(latency.getSum()));
+    appendLine(sb, prefix, "duration_seconds_count", actionName, null, Long.toString(latency.getCount()));
+  }
+
+  private void appendMax(StringBuilder sb, String prefix, String actionName, ActionMetrics metrics) {
+    appendLine(sb, prefix, "duration_seconds_max", actionName, null, toSeconds(metrics.getLatency().getMax()));
+  }
+
+  private void appendResponses(StringBuilder sb, String prefix, String actionName, ActionMetrics metrics) {
+    for (int i = 1; i < ActionMetrics.STATUS_CLASS_COUNT; i++) {
+      appendLine(sb, prefix, "responses_total", actionName, "code=\"" + i + "xx\"", Long.toString(metrics.getStatusCount(i)));
+    }
+  }
+
+  private void appendLine(StringBuilder sb, String prefix, String name, String actionName, String label, String value) {
+    sb.append(prefix).append(name);
+    sb.append("{action=\"").append(actionName).append('"');
+    if (label != null) {
+      sb.append(',').append(label);
+    }
+    sb.append("} ").append(value).append('\n');
+  }
+
+  private String toSeconds(long micros) {
+    return Double.toString(micros / 1000000.0);
+  }
+
+  /**
+   * Returns whether the request comes directly from the loopback address.
+   */
+  private boolean isLocalAccess(ProcessContext context) {
+    if (context.getXForwardedFor() != null) {
+      return false;
+    }
+    String addr = context.getRemoteAddr();
+    if (addr == null) {
+      return false;
+    }
+    try {
+      return InetAddress.getByName(addr).isLoopbackAddress();
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+}
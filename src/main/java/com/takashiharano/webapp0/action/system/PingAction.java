@@ -5,20 +5,20 @@
  */
 package com.takashiharano.webapp0.action.system;
 
+import com.takashiharano.webapp0.AppManager;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 
+@ActionConfig(authRequired = false, stateless = true)
 public class PingAction extends Action {
 
-  @Override
-  protected void init(ProcessContext context) {
-    setAuthRequired(false);
-  }
-
   @Override
   public void process(ProcessContext context) throws Exception {
-    String etag = "\"" + System.currentTimeMillis() + "\"";
-    context.setResponseHeader("ETag", etag);
+    String etag = AppManager.getInstance().getInstanceETag();
+    if (context.checkNotModified(etag)) {
+      return;
+    }
     context.sendTextResponse("1");
   }
 
@@ -8,7 +8,9 @@ package com.takashiharano.webapp0.action.system;
 import com.takashiharano.webapp0.AppManager;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 
+@ActionConfig(stateless = true)
 public class ResetAction extends Action {
 
   @Override
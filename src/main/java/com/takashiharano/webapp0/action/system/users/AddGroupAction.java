@@ -7,9 +7,11 @@ package com.takashiharano.webapp0.action.system.users;
 
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.user.GroupManager;
 import com.takashiharano.webapp0.util.Log;
 
+@ActionConfig(stateless = true)
 public class AddGroupAction extends Action {
 
   @Override
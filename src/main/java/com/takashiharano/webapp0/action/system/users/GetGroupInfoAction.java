@@ -7,9 +7,11 @@ package com.takashiharano.webapp0.action.system.users;
 
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.user.Group;
 import com.takashiharano.webapp0.user.GroupManager;
 
+@ActionConfig(stateless = true)
 public class GetGroupInfoAction extends Action {
 
   @Override
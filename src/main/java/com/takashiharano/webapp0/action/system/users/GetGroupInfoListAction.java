@@ -11,9 +11,11 @@ import java.util.Map.Entry;
 import com.libutil.JsonBuilder;
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.action.Action;
+import com.takashiharano.webapp0.action.ActionConfig;
 import com.takashiharano.webapp0.user.Group;
 import com.takashiharano.webapp0.user.GroupManager;
 
+@ActionConfig(stateless = true)
 public class GetGroupInfoListAction extends Action {
 
   @Override
@@ -6,44 +6,175 @@
 package com.takashiharano.webapp0.async;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.takashiharano.webapp0.ProcessContext;
 import com.takashiharano.webapp0.util.Log;
 
 public abstract class AsyncTask {
 
+  protected String taskId;
+  protected String ownerId;
   protected Future<AsyncTaskResult> future;
-  protected Object taskInfo;
+  protected volatile Object taskInfo;
   protected AsyncTaskResult taskResult;
   protected ProcessContext context;
   protected long startedTime = -1;
   protected long finishedTime = -1;
+  private volatile long lastAccessTime;
+  private long retainedSize;
+  private boolean released;
 
   public AsyncTask(ProcessContext context) {
     this.context = context;
+    if (context != null) {
+      ownerId = context.getSessionId();
+    }
     taskResult = new AsyncTaskResult();
+    lastAccessTime = System.currentTimeMillis();
   }
 
   /**
-   * Execute the async task in a subthread.
+   * Execute the async task on the worker pool of the AsyncTaskManager.
    *
    * @return a Future object
+   * @throws RejectedExecutionException
+   *           if the pool and its queue are full
    */
   public Future<AsyncTaskResult> exec() {
+    ExecutorService executor = AsyncTaskManager.getInstance().getExecutor();
+    return exec(executor);
+  }
+
+  /**
+   * Execute the async task on the executor.
+   *
+   * @param executor
+   *          the executor to run the task
+   * @return a Future object
+   * @throws RejectedExecutionException
+   *           if the executor does not accept the task
+   */
+  public Future<AsyncTaskResult> exec(ExecutorService executor) {
     startedTime = System.currentTimeMillis();
-    ExecutorService executor = Executors.newSingleThreadExecutor();
-    future = executor.submit(() -> {
+    FutureTask<AsyncTaskResult> futureTask = new FutureTask<AsyncTaskResult>(() -> {
+      // With the caller_runs policy this runs on the request thread, whose
+      // context must be restored afterwards.
+      ProcessContext prevContext = Log.getInstance().getContext();
       Log.setContext(context);
-      AsyncTaskResult result = process();
-      finishedTime = System.currentTimeMillis();
-      Log.removeContext();
-      return result;
-    });
+      try {
+        return process();
+      } finally {
+        finishedTime = System.currentTimeMillis();
+        if (prevContext == null) {
+          Log.removeContext();
+        } else {
+          Log.setContext(prevContext);
+        }
+      }
+    }) {
+      @Override
+      protected void done() {
+        onDone();
+      }
+    };
+    future = futureTask;
+    executor.execute(futureTask);
     return future;
   }
 
+  /**
+   * Called when the task has completed, failed or been cancelled.
+   */
+  private void onDone() {
+    if (finishedTime < 0) {
+      setFinishedTime();
+    }
+    AsyncTaskManager.getInstance().onTaskDone(this);
+  }
+
+  /**
+   * Returns the last time the task was referred to in unix millis.
+   *
+   * @return the last access time
+   */
+  public long getLastAccessTime() {
+    return lastAccessTime;
+  }
+
+  /**
+   * Marks the task as referred to now.
+   */
+  void touch() {
+    lastAccessTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Records the estimated size of the result held by the manager.
+   *
+   * @param size
+   *          the size in bytes
+   * @return false if the task has already been released
+   */
+  synchronized boolean retain(long size) {
+    if (released) {
+      return false;
+    }
+    retainedSize = size;
+    return true;
+  }
+
+  /**
+   * Marks the task as removed from the manager.
+   *
+   * @return the size recorded by retain()
+   */
+  synchronized long release() {
+    released = true;
+    long size = retainedSize;
+    retainedSize = 0;
+    return size;
+  }
+
+  /**
+   * Returns the estimated size of the result held by the manager.
+   *
+   * @return the size in bytes
+   */
+  public synchronized long getRetainedSize() {
+    return retainedSize;
+  }
+
+  /**
+   * Returns the task id.
+   *
+   * @return the task id. null if the task has not been registered.
+   */
+  public String getTaskId() {
+    return taskId;
+  }
+
+  /**
+   * Sets the task id. This is called by AsyncTaskManager#registerTask().
+   *
+   * @param taskId
+   *          the task id
+   */
+  void setTaskId(String taskId) {
+    this.taskId = taskId;
+  }
+
+  /**
+   * Returns the id of the client that started the task.
+   *
+   * @return the session id. null if unknown.
+   */
+  public String getOwnerId() {
+    return ownerId;
+  }
+
   /**
    * Returns whether the task has been done.
    *
@@ -94,6 +225,7 @@ public abstract class AsyncTask {
    */
   public void setTaskInfo(Object taskInfo) {
     this.taskInfo = taskInfo;
+    AsyncTaskManager.getInstance().getTaskEventHub().publishInfo(this);
   }
 
   /**
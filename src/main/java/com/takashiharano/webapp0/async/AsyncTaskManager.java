@@ -5,22 +5,66 @@
  */
 package com.takashiharano.webapp0.async;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.takashiharano.webapp0.AppManager;
 import com.takashiharano.webapp0.util.Log;
+import com.takashiharano.webapp0.util.TaskThreads;
 
 public class AsyncTaskManager {
+  public static final String REJECTION_POLICY_ABORT = "abort";
+  public static final String REJECTION_POLICY_CALLER_RUNS = "caller_runs";
+
+  private static final int DEFAULT_POOL_SIZE = 4;
+  private static final int DEFAULT_VIRTUAL_POOL_SIZE = 256;
+  private static final int DEFAULT_QUEUE_SIZE = 100;
+  private static final int DEFAULT_SHUTDOWN_TIMEOUT_SEC = 10;
+  private static final long KEEP_ALIVE_SEC = 60;
+  private static final int DEFAULT_EVENT_HEARTBEAT_SEC = 15;
+  private static final int DEFAULT_EVENT_COALESCE_MILLIS = 200;
+  private static final int DEFAULT_TASK_TTL_SEC = 300;
+  private static final int DEFAULT_MAX_RETAINED_TASKS = 1000;
+  private static final int DEFAULT_MAX_RETAINED_RESULT_KB = 64 * 1024;
+
   private static volatile AsyncTaskManager instance;
 
   private ConcurrentHashMap<String, AsyncTask> asyncTaskMap;
-  private long counter;
+  private AtomicLong taskIdSeq;
+  private ThreadPoolExecutor executor;
+  private AtomicLong rejectedCount;
+  private int shutdownTimeoutSec;
+  private volatile TaskEventHub taskEventHub;
+  private long taskTtlMillis;
+  private int maxRetainedTasks;
+  private long maxRetainedResultBytes;
+  private AtomicLong retainedResultBytes;
+  private AtomicLong evictedCount;
+  private AtomicLong expiredCount;
 
   public AsyncTaskManager() {
     asyncTaskMap = new ConcurrentHashMap<>();
-    counter = 0;
+    taskIdSeq = new AtomicLong();
+    rejectedCount = new AtomicLong();
+    retainedResultBytes = new AtomicLong();
+    evictedCount = new AtomicLong();
+    expiredCount = new AtomicLong();
+    taskTtlMillis = DEFAULT_TASK_TTL_SEC * 1000L;
+    maxRetainedTasks = DEFAULT_MAX_RETAINED_TASKS;
+    maxRetainedResultBytes = DEFAULT_MAX_RETAINED_RESULT_KB * 1024L;
+    taskEventHub = new TaskEventHub(DEFAULT_EVENT_HEARTBEAT_SEC * 1000L, DEFAULT_EVENT_COALESCE_MILLIS);
   }
 
   public static AsyncTaskManager getInstance() {
@@ -30,6 +74,199 @@ public class AsyncTaskManager {
     return instance;
   }
 
+  /**
+   * Creates the worker pool.<br>
+   * async_task_pool_size threads run the tasks and up to async_task_queue_size
+   * tasks wait for a free thread. When both are full, a new task is rejected
+   * (abort) or run in the calling thread (caller_runs) according to
+   * async_task_rejection_policy.<br>
+   * With the virtual threads, an idle or sleeping worker costs little, so the
+   * pool size is async_task_virtual_pool_size instead.
+   */
+  public synchronized void init() {
+    if (executor != null) {
+      return;
+    }
+    AppManager appManager = AppManager.getInstance();
+    int poolSize;
+    if (TaskThreads.isVirtual()) {
+      poolSize = appManager.getConfigValueAsInteger("async_task_virtual_pool_size", DEFAULT_VIRTUAL_POOL_SIZE);
+    } else {
+      poolSize = appManager.getConfigValueAsInteger("async_task_pool_size", DEFAULT_POOL_SIZE);
+    }
+    int queueSize = appManager.getConfigValueAsInteger("async_task_queue_size", DEFAULT_QUEUE_SIZE);
+    String rejectionPolicy = appManager.getConfigValue("async_task_rejection_policy", REJECTION_POLICY_ABORT);
+    shutdownTimeoutSec = appManager.getConfigValueAsInteger("async_task_shutdown_timeout_sec", DEFAULT_SHUTDOWN_TIMEOUT_SEC);
+    executor = createExecutor(poolSize, queueSize, rejectionPolicy);
+
+    int heartbeatSec = appManager.getConfigValueAsInteger("task_event_heartbeat_sec", DEFAULT_EVENT_HEARTBEAT_SEC);
+    int coalesceMillis = appManager.getConfigValueAsInteger("task_event_coalesce_ms", DEFAULT_EVENT_COALESCE_MILLIS);
+    taskEventHub = new TaskEventHub(heartbeatSec * 1000L, coalesceMillis);
+    taskEventHub.start();
+
+    taskTtlMillis = appManager.getConfigValueAsInteger("async_task_ttl_sec", DEFAULT_TASK_TTL_SEC) * 1000L;
+    maxRetainedTasks = appManager.getConfigValueAsInteger("async_task_max_retained", DEFAULT_MAX_RETAINED_TASKS);
+    maxRetainedResultBytes = appManager.getConfigValueAsInteger("async_task_max_retained_result_kb", DEFAULT_MAX_RETAINED_RESULT_KB) * 1024L;
+    Log.i("AsyncTask pool: threads=" + TaskThreads.getMode() + " size=" + poolSize + " queue=" + queueSize + " rejection=" + rejectionPolicy);
+  }
+
+  private ThreadPoolExecutor createExecutor(int poolSize, int queueSize, String rejectionPolicy) {
+    boolean callerRuns = REJECTION_POLICY_CALLER_RUNS.equals(rejectionPolicy);
+    ThreadFactory threadFactory = TaskThreads.newThreadFactory("async-task");
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SEC, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory, (r, e) -> {
+      rejectedCount.incrementAndGet();
+      if (callerRuns && !e.isShutdown()) {
+        r.run();
+        return;
+      }
+      throw new RejectedExecutionException("ASYNC_TASK_QUEUE_FULL");
+    });
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Returns the worker pool for the async tasks.
+   *
+   * @return the executor
+   */
+  public synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      init();
+    }
+    return executor;
+  }
+
+  /**
+   * Stops the worker pool.<br>
+   * The running and queued tasks are given async_task_shutdown_timeout_sec to
+   * finish, and are interrupted after that.
+   */
+  public void onStop() {
+    taskEventHub.stop();
+    ThreadPoolExecutor pool;
+    synchronized (this) {
+      pool = executor;
+      executor = null;
+    }
+    if (pool == null) {
+      return;
+    }
+    pool.shutdown();
+    try {
+      if (!pool.awaitTermination(shutdownTimeoutSec, TimeUnit.SECONDS)) {
+        int n = pool.shutdownNow().size();
+        Log.w("AsyncTask pool did not stop in " + shutdownTimeoutSec + "s: " + n + " queued tasks dropped");
+      }
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    Log.i("AsyncTask stats: completed=" + pool.getCompletedTaskCount() + " rejected=" + getRejectedCount() + " expired=" + getExpiredCount() + " evicted=" + getEvictedCount());
+  }
+
+  /**
+   * Returns the hub that streams the task events to the clients.
+   *
+   * @return the hub
+   */
+  public TaskEventHub getTaskEventHub() {
+    return taskEventHub;
+  }
+
+  /**
+   * Returns the tasks started by the client.
+   *
+   * @param ownerId
+   *          the session id of the client
+   * @return the tasks
+   */
+  public List<AsyncTask> getTasks(String ownerId) {
+    List<AsyncTask> tasks = new ArrayList<>();
+    for (AsyncTask task : asyncTaskMap.values()) {
+      if ((ownerId != null) && ownerId.equals(task.getOwnerId())) {
+        tasks.add(task);
+      }
+    }
+    return tasks;
+  }
+
+  /**
+   * Returns the number of the tasks waiting for a worker thread.
+   *
+   * @return the queue depth
+   */
+  public int getQueueDepth() {
+    ThreadPoolExecutor pool = executor;
+    return (pool == null) ? 0 : pool.getQueue().size();
+  }
+
+  /**
+   * Returns the approximate number of the running tasks.
+   *
+   * @return the active count
+   */
+  public int getActiveCount() {
+    ThreadPoolExecutor pool = executor;
+    return (pool == null) ? 0 : pool.getActiveCount();
+  }
+
+  /**
+   * Returns the approximate number of the tasks that have completed.
+   *
+   * @return the completed count
+   */
+  public long getCompletedCount() {
+    ThreadPoolExecutor pool = executor;
+    return (pool == null) ? 0 : pool.getCompletedTaskCount();
+  }
+
+  /**
+   * Returns the number of the tasks rejected because the pool was full.
+   *
+   * @return the rejected count
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Returns the number of the tasks held by the manager.
+   *
+   * @return the count
+   */
+  public int getRetainedTaskCount() {
+    return asyncTaskMap.size();
+  }
+
+  /**
+   * Returns the estimated total size of the results of the finished tasks held
+   * by the manager.
+   *
+   * @return the size in bytes
+   */
+  public long getRetainedResultBytes() {
+    return retainedResultBytes.get();
+  }
+
+  /**
+   * Returns the number of the finished tasks removed after the TTL.
+   *
+   * @return the count
+   */
+  public long getExpiredCount() {
+    return expiredCount.get();
+  }
+
+  /**
+   * Returns the number of the finished tasks removed to keep the limits.
+   *
+   * @return the count
+   */
+  public long getEvictedCount() {
+    return evictedCount.get();
+  }
+
   /**
    * Register the async task.
    *
@@ -38,25 +275,54 @@ public class AsyncTaskManager {
    * @return id of the async task
    */
   public String registerTask(AsyncTask asyncTask) {
-    cleanupOldTasks();
-    String taskId = "async-task-" + incrementCounter();
+    String taskId = "async-task-" + taskIdSeq.incrementAndGet();
+    asyncTask.setTaskId(taskId);
     asyncTaskMap.put(taskId, asyncTask);
+    if (asyncTaskMap.size() > maxRetainedTasks) {
+      evict();
+    }
     return taskId;
   }
 
+  /**
+   * Called when the task has completed, failed or been cancelled.
+   *
+   * @param asyncTask
+   *          the task
+   */
+  void onTaskDone(AsyncTask asyncTask) {
+    // The TTL starts when the result is ready, not when the task was created.
+    asyncTask.touch();
+    long size = estimateResultSize(asyncTask);
+    if (asyncTask.retain(size)) {
+      long total = retainedResultBytes.addAndGet(size);
+      if (total > maxRetainedResultBytes) {
+        evict();
+      }
+    }
+    taskEventHub.publishDone(asyncTask);
+  }
+
   /**
    * Execute the async task.
    *
    * @param taskId
    *          the task id to execute
-   * @return true if the task has been executed; false otherwise.
+   * @return true if the task has been executed; false if the task is not
+   *         found or the worker pool is full.
    */
   public boolean executeTask(String taskId) {
-    AsyncTask asyncTask = asyncTaskMap.get(taskId);
+    AsyncTask asyncTask = getTask(taskId);
     if (asyncTask == null) {
       return false;
     }
-    asyncTask.exec();
+    try {
+      asyncTask.exec(getExecutor());
+    } catch (RejectedExecutionException e) {
+      removeTask(taskId);
+      Log.w("AsyncTask rejected: " + taskId + " queue=" + getQueueDepth() + " active=" + getActiveCount());
+      return false;
+    }
     return true;
   }
 
@@ -68,7 +334,7 @@ public class AsyncTaskManager {
    * @return true if the task has been done
    */
   public boolean isDone(String taskId) {
-    AsyncTask asyncTask = asyncTaskMap.get(taskId);
+    AsyncTask asyncTask = getTask(taskId);
     if (asyncTask == null) {
       return false;
     }
@@ -85,8 +351,7 @@ public class AsyncTaskManager {
    * @return the task object
    */
   public AsyncTask getAsyncTask(String taskId) {
-    AsyncTask asyncTask = asyncTaskMap.get(taskId);
-    return asyncTask;
+    return getTask(taskId);
   }
 
   /**
@@ -97,7 +362,7 @@ public class AsyncTaskManager {
    * @return task info object
    */
   public Object getAsyncTaskInfo(String taskId) {
-    AsyncTask asyncTask = asyncTaskMap.get(taskId);
+    AsyncTask asyncTask = getTask(taskId);
     if (asyncTask == null) {
       return null;
     }
@@ -112,7 +377,7 @@ public class AsyncTaskManager {
    * @return task result object
    */
   public AsyncTaskResult getResult(String taskId) {
-    AsyncTask asyncTask = asyncTaskMap.get(taskId);
+    AsyncTask asyncTask = getTask(taskId);
     if (asyncTask == null) {
       return null;
     }
@@ -131,7 +396,7 @@ public class AsyncTaskManager {
    *           If an error occurs
    */
   public AsyncTaskResult getTaskResult(String taskId) throws Exception {
-    AsyncTask asyncTask = asyncTaskMap.remove(taskId);
+    AsyncTask asyncTask = removeTask(taskId);
     if (asyncTask == null) {
       return null;
     }
@@ -157,47 +422,111 @@ public class AsyncTaskManager {
     boolean cancelled = false;
     if (asyncTask != null) {
       cancelled = asyncTask.cancel();
-      asyncTaskMap.remove(taskId);
+      removeTask(taskId);
     }
     Log.i("AsyncTask cancel: " + taskId + " [" + (cancelled ? "OK" : "NG") + "]");
     return cancelled;
   }
 
   /**
-   * Increment the counter for Task ID.
+   * Removes the finished tasks that have not been referred to for
+   * async_task_ttl_sec, and then evicts the least recently used finished tasks
+   * while the number of the tasks or the size of the results exceeds the
+   * limits.<br>
+   * Running tasks are not removed. This is called by AsyncTaskReaper.
    *
-   * @return Incremented value
+   * @return the number of the tasks removed
    */
-  private synchronized long incrementCounter() {
-    return ++counter;
+  public int reap() {
+    long now = System.currentTimeMillis();
+    int count = 0;
+    for (Entry<String, AsyncTask> entry : asyncTaskMap.entrySet()) {
+      AsyncTask task = entry.getValue();
+      if (task.getFinishedTime() < 0) {
+        continue;
+      }
+      if (now - task.getLastAccessTime() > taskTtlMillis) {
+        if (removeTask(entry.getKey()) != null) {
+          expiredCount.incrementAndGet();
+          count++;
+        }
+      }
+    }
+    count += evict();
+    return count;
   }
 
   /**
-   * Removes tasks that remain in management information for more than a certain
-   * amount of time after completion.<br>
-   * Running tasks are not deleted.
+   * Evicts the least recently used finished tasks until the number of the
+   * tasks and the size of the results are within the limits.
+   *
+   * @return the number of the tasks evicted
    */
-  private void cleanupOldTasks() {
-    long MAX_TIME = 300000; // 5min
-    long now = System.currentTimeMillis();
+  private synchronized int evict() {
+    if ((asyncTaskMap.size() <= maxRetainedTasks) && (retainedResultBytes.get() <= maxRetainedResultBytes)) {
+      return 0;
+    }
+    List<AsyncTask> finishedTasks = new ArrayList<>();
+    for (AsyncTask task : asyncTaskMap.values()) {
+      if (task.getFinishedTime() >= 0) {
+        finishedTasks.add(task);
+      }
+    }
+    finishedTasks.sort(Comparator.comparingLong(AsyncTask::getLastAccessTime));
 
-    for (Entry<String, AsyncTask> entry : asyncTaskMap.entrySet()) {
-      String taskId = entry.getKey();
-      AsyncTask task = entry.getValue();
-      long finishedTime = task.getFinishedTime();
-      if (finishedTime < 0) {
-        continue;
+    int count = 0;
+    for (int i = 0; i < finishedTasks.size(); i++) {
+      if ((asyncTaskMap.size() <= maxRetainedTasks) && (retainedResultBytes.get() <= maxRetainedResultBytes)) {
+        break;
       }
-      long elapsed = now - finishedTime;
-      if (elapsed > MAX_TIME) {
-        asyncTaskMap.remove(taskId);
-        Log.i("Old task removed: " + taskId);
+      String taskId = finishedTasks.get(i).getTaskId();
+      if (removeTask(taskId) != null) {
+        count++;
       }
     }
+    if (count > 0) {
+      evictedCount.addAndGet(count);
+      Log.i("AsyncTask evicted: " + count + " tasks=" + asyncTaskMap.size() + " resultBytes=" + retainedResultBytes.get());
+    }
+    return count;
+  }
 
-    int taskNum = asyncTaskMap.size();
-    if (taskNum == 0) {
-      counter = 0;
+  private AsyncTask getTask(String taskId) {
+    AsyncTask asyncTask = asyncTaskMap.get(taskId);
+    if (asyncTask != null) {
+      asyncTask.touch();
     }
+    return asyncTask;
   }
+
+  private AsyncTask removeTask(String taskId) {
+    AsyncTask asyncTask = asyncTaskMap.remove(taskId);
+    if (asyncTask != null) {
+      retainedResultBytes.addAndGet(-asyncTask.release());
+    }
+    return asyncTask;
+  }
+
+  /**
+   * Estimates the memory used by the result of the finished task.
+   */
+  private long estimateResultSize(AsyncTask asyncTask) {
+    if (asyncTask.isCancelled()) {
+      return 0;
+    }
+    Future<AsyncTaskResult> future = asyncTask.getFuture();
+    try {
+      AsyncTaskResult result = future.get();
+      if (result == null) {
+        return 0;
+      }
+      return ObjectSizeEstimator.estimate(result.getResult());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      return ObjectSizeEstimator.estimate((cause == null) ? null : cause.toString());
+    } catch (Exception e) {
+      return 0;
+    }
+  }
+
 }
@@ -0,0 +1,84 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.async;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Estimates the heap size of a task result roughly.<br>
+ * Strings, arrays of primitives, collections and maps are measured. The
+ * elements of collections and maps are followed up to MAX_DEPTH levels. Any
+ * other object is counted as OBJECT_SIZE.
+ */
+class ObjectSizeEstimator {
+
+  private static final int OBJECT_SIZE = 16;
+  private static final int REFERENCE_SIZE = 8;
+  private static final int ARRAY_HEADER_SIZE = 16;
+  private static final int ENTRY_SIZE = 32;
+  private static final int MAX_DEPTH = 3;
+
+  /**
+   * Returns the estimated size of the object.
+   *
+   * @param o
+   *          the object
+   * @return the size in bytes
+   */
+  static long estimate(Object o) {
+    return estimate(o, 0);
+  }
+
+  private static long estimate(Object o, int depth) {
+    if (o == null) {
+      return 0;
+    }
+    if (o instanceof String) {
+      return OBJECT_SIZE + ARRAY_HEADER_SIZE + ((String) o).length() * 2L;
+    } else if (o instanceof byte[]) {
+      return ARRAY_HEADER_SIZE + ((byte[]) o).length;
+    } else if (o instanceof char[]) {
+      return ARRAY_HEADER_SIZE + ((char[]) o).length * 2L;
+    } else if ((o instanceof int[]) || (o instanceof float[])) {
+      return ARRAY_HEADER_SIZE + Array.getLength(o) * 4L;
+    } else if ((o instanceof long[]) || (o instanceof double[])) {
+      return ARRAY_HEADER_SIZE + Array.getLength(o) * 8L;
+    } else if (o instanceof Object[]) {
+      Object[] a = (Object[]) o;
+      long size = ARRAY_HEADER_SIZE + a.length * (long) REFERENCE_SIZE;
+      if (depth < MAX_DEPTH) {
+        for (int i = 0; i < a.length; i++) {
+          size += estimate(a[i], depth + 1);
+        }
+      }
+      return size;
+    } else if (o instanceof Collection) {
+      Collection<?> c = (Collection<?>) o;
+      long size = OBJECT_SIZE + c.size() * (long) ENTRY_SIZE;
+      if (depth < MAX_DEPTH) {
+        for (Object e : c) {
+          size += estimate(e, depth + 1);
+        }
+      }
+      return size;
+    } else if (o instanceof Map) {
+      Map<?, ?> m = (Map<?, ?>) o;
+      long size = OBJECT_SIZE + m.size() * (long) ENTRY_SIZE;
+      if (depth < MAX_DEPTH) {
+        for (Entry<?, ?> e : m.entrySet()) {
+          size += estimate(e.getKey(), depth + 1);
+          size += estimate(e.getValue(), depth + 1);
+        }
+      }
+      return size;
+    }
+    return OBJECT_SIZE;
+  }
+
+}
@@ -0,0 +1,458 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.async;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import com.libutil.JsonBuilder;
+import com.takashiharano.webapp0.util.Log;
+import com.takashiharano.webapp0.util.TaskThreads;
+
+/**
+ * Pushes the progress of the async tasks to the browsers as Server-Sent
+ * Events.<br>
+ * A client (session) has one stream for all of its tasks. The events are
+ * queued per stream and handed to the non-blocking output of the stream by a
+ * single dispatcher thread, so neither the task threads, the container threads
+ * nor the other streams wait for a slow client. While the output of a stream
+ * is not written out, its events stay in the queue, and the info updates of a
+ * task are merged into the latest one.
+ *
+ * <pre>
+ * event: info
+ * data: {"taskId":"async-task-1","info":"loop = 3"}
+ *
+ * event: done
+ * data: {"taskId":"async-task-1","cancelled":false,"error":false,"result":"RESULT_OK"}
+ * </pre>
+ */
+public class TaskEventHub {
+
+  public static final String EVENT_INFO = "info";
+  public static final String EVENT_DONE = "done";
+
+  private static final long RETRY_MILLIS = 3000;
+
+  private ConcurrentHashMap<String, Set<Subscriber>> subscribers;
+  private Object signal;
+  private boolean dirty;
+  private volatile boolean running;
+  private Thread dispatcher;
+  private long heartbeatMillis;
+  private long coalesceMillis;
+  private AtomicLong sentEventCount;
+
+  private class Subscriber implements AsyncListener, WriteListener {
+    String ownerId;
+    AsyncContext asyncContext;
+    LinkedHashMap<String, String> pending;
+    Object writeLock;
+    ServletOutputStream out;
+    // the bytes handed to the stream and not written yet
+    byte[] output;
+    boolean flushRequired;
+    volatile long lastWriteTime;
+    volatile boolean closed;
+
+    Subscriber(String ownerId, AsyncContext asyncContext) {
+      this.ownerId = ownerId;
+      this.asyncContext = asyncContext;
+      this.pending = new LinkedHashMap<>();
+      this.writeLock = new Object();
+      this.lastWriteTime = System.currentTimeMillis();
+    }
+
+    synchronized void enqueue(String key, String event) {
+      // Move the replaced event to the end to keep the order of the changes.
+      pending.remove(key);
+      pending.put(key, event);
+    }
+
+    synchronized List<String> drain() {
+      if (pending.isEmpty()) {
+        return null;
+      }
+      List<String> events = new ArrayList<>(pending.values());
+      pending.clear();
+      return events;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      unsubscribe(this);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      close(this);
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      close(this);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    @Override
+    public void onWritePossible() {
+      writeOutput(this);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      close(this);
+    }
+  }
+
+  /**
+   * Creates the hub.
+   *
+   * @param heartbeatMillis
+   *          the interval of the keep-alive comments on an idle stream
+   * @param coalesceMillis
+   *          the time to wait for more events before writing
+   */
+  public TaskEventHub(long heartbeatMillis, long coalesceMillis) {
+    this.subscribers = new ConcurrentHashMap<>();
+    this.signal = new Object();
+    this.heartbeatMillis = heartbeatMillis;
+    this.coalesceMillis = coalesceMillis;
+    this.sentEventCount = new AtomicLong();
+  }
+
+  /**
+   * Starts the dispatcher thread.
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    dispatcher = TaskThreads.newThread("task-event-dispatcher", this::runDispatcher);
+    dispatcher.start();
+  }
+
+  /**
+   * Stops the dispatcher and closes all streams.
+   */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    signal();
+    try {
+      dispatcher.join(heartbeatMillis + 1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Set<Subscriber> set : subscribers.values()) {
+      for (Subscriber subscriber : set) {
+        close(subscriber);
+      }
+    }
+    subscribers.clear();
+    Log.i("TaskEventHub stopped: events=" + getSentEventCount());
+  }
+
+  /**
+   * Registers a stream.<br>
+   * The current state of the client's tasks is sent first so that a
+   * reconnected client catches up.
+   *
+   * @param ownerId
+   *          the client id (session id)
+   * @param asyncContext
+   *          the started async context of the request
+   * @param tasks
+   *          the tasks of the client
+   */
+  public void subscribe(String ownerId, AsyncContext asyncContext, List<AsyncTask> tasks) {
+    Subscriber subscriber = new Subscriber(ownerId, asyncContext);
+    asyncContext.addListener(subscriber);
+    try {
+      subscriber.out = asyncContext.getResponse().getOutputStream();
+      subscriber.out.setWriteListener(subscriber);
+    } catch (Exception e) {
+      Log.e("TaskEvent stream error: " + e);
+      close(subscriber);
+      return;
+    }
+    subscriber.enqueue("retry", "retry: " + RETRY_MILLIS + "\n\n");
+    // Register before reading the states, so that a task that ends meanwhile
+    // is published to this stream. The events are keyed per task, so the
+    // duplicates are merged.
+    subscribers.computeIfAbsent(ownerId, k -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    for (int i = 0; i < tasks.size(); i++) {
+      AsyncTask task = tasks.get(i);
+      if (!task.isDone() && !task.isCancelled()) {
+        subscriber.enqueue(EVENT_INFO + ":" + task.getTaskId(), buildInfoEvent(task));
+      }
+      // checked again so that the done event is always after the info
+      if (task.isDone() || task.isCancelled()) {
+        subscriber.enqueue(EVENT_DONE + ":" + task.getTaskId(), buildDoneEvent(task));
+      }
+    }
+    signal();
+  }
+
+  /**
+   * Publishes the current task info.
+   *
+   * @param task
+   *          the task
+   */
+  public void publishInfo(AsyncTask task) {
+    Set<Subscriber> set = getSubscribers(task);
+    if (set == null) {
+      return;
+    }
+    String event = buildInfoEvent(task);
+    for (Subscriber subscriber : set) {
+      subscriber.enqueue(EVENT_INFO + ":" + task.getTaskId(), event);
+    }
+    signal();
+  }
+
+  /**
+   * Publishes the completion of the task.
+   *
+   * @param task
+   *          the task
+   */
+  public void publishDone(AsyncTask task) {
+    Set<Subscriber> set = getSubscribers(task);
+    if (set == null) {
+      return;
+    }
+    String event = buildDoneEvent(task);
+    for (Subscriber subscriber : set) {
+      subscriber.enqueue(EVENT_DONE + ":" + task.getTaskId(), event);
+    }
+    signal();
+  }
+
+  /**
+   * Returns the number of the open streams.
+   *
+   * @return the count
+   */
+  public int getSubscriberCount() {
+    int count = 0;
+    for (Set<Subscriber> set : subscribers.values()) {
+      count += set.size();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of the events written.
+   *
+   * @return the count
+   */
+  public long getSentEventCount() {
+    return sentEventCount.get();
+  }
+
+  private Set<Subscriber> getSubscribers(AsyncTask task) {
+    String ownerId = task.getOwnerId();
+    if ((ownerId == null) || (task.getTaskId() == null)) {
+      return null;
+    }
+    return subscribers.get(ownerId);
+  }
+
+  private void signal() {
+    synchronized (signal) {
+      dirty = true;
+      signal.notifyAll();
+    }
+  }
+
+  private void runDispatcher() {
+    while (running) {
+      boolean signaled;
+      synchronized (signal) {
+        if (!dirty) {
+          try {
+            signal.wait(heartbeatMillis);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        signaled = dirty;
+        dirty = false;
+      }
+      if (signaled && (coalesceMillis > 0)) {
+        try {
+          Thread.sleep(coalesceMillis);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+      try {
+        dispatch();
+      } catch (Exception e) {
+        Log.e("TaskEvent dispatch error: " + e);
+      }
+    }
+  }
+
+  private void dispatch() {
+    long now = System.currentTimeMillis();
+    for (Set<Subscriber> set : subscribers.values()) {
+      for (Subscriber subscriber : set) {
+        if (!isOutputEmpty(subscriber)) {
+          // the client has not read the previous output yet
+          continue;
+        }
+        List<String> events = subscriber.drain();
+        if (events != null) {
+          StringBuilder sb = new StringBuilder();
+          for (int i = 0; i < events.size(); i++) {
+            sb.append(events.get(i));
+          }
+          if (write(subscriber, sb.toString())) {
+            sentEventCount.addAndGet(events.size());
+          }
+        } else if (now - subscriber.lastWriteTime >= heartbeatMillis) {
+          write(subscriber, ": ping\n\n");
+        }
+      }
+    }
+  }
+
+  private boolean isOutputEmpty(Subscriber subscriber) {
+    synchronized (subscriber.writeLock) {
+      return subscriber.output == null;
+    }
+  }
+
+  /**
+   * Hands the text to the output of the stream.<br>
+   * This does not wait for the client. The rest is written by the container
+   * thread that calls onWritePossible().
+   */
+  private boolean write(Subscriber subscriber, String text) {
+    if (subscriber.closed) {
+      return false;
+    }
+    synchronized (subscriber.writeLock) {
+      subscriber.output = text.getBytes(StandardCharsets.UTF_8);
+    }
+    writeOutput(subscriber);
+    return !subscriber.closed;
+  }
+
+  /**
+   * Writes the output as long as the stream can take it without blocking.
+   */
+  private void writeOutput(Subscriber subscriber) {
+    if (subscriber.closed) {
+      return;
+    }
+    synchronized (subscriber.writeLock) {
+      try {
+        ServletOutputStream out = subscriber.out;
+        while (out.isReady()) {
+          if (subscriber.output != null) {
+            out.write(subscriber.output);
+            subscriber.output = null;
+            subscriber.flushRequired = true;
+          } else if (subscriber.flushRequired) {
+            subscriber.flushRequired = false;
+            out.flush();
+            subscriber.lastWriteTime = System.currentTimeMillis();
+          } else {
+            break;
+          }
+        }
+      } catch (Exception e) {
+        close(subscriber);
+      }
+    }
+  }
+
+  private void close(Subscriber subscriber) {
+    if (subscriber.closed) {
+      return;
+    }
+    subscriber.closed = true;
+    unsubscribe(subscriber);
+    try {
+      subscriber.asyncContext.complete();
+    } catch (Exception e) {
+      // already completed by the container
+    }
+  }
+
+  private void unsubscribe(Subscriber subscriber) {
+    subscriber.closed = true;
+    Set<Subscriber> set = subscribers.get(subscriber.ownerId);
+    if (set == null) {
+      return;
+    }
+    set.remove(subscriber);
+    if (set.isEmpty()) {
+      subscribers.remove(subscriber.ownerId, set);
+    }
+  }
+
+  private String buildInfoEvent(AsyncTask task) {
+    Object info = task.getTaskInfo();
+    JsonBuilder jb = new JsonBuilder();
+    jb.append("taskId", task.getTaskId());
+    jb.append("info", (info == null) ? null : info.toString());
+    return buildEvent(EVENT_INFO, jb.toString());
+  }
+
+  private String buildDoneEvent(AsyncTask task) {
+    boolean cancelled = task.isCancelled();
+    boolean error = false;
+    String result = "";
+    if (!cancelled) {
+      try {
+        Future<AsyncTaskResult> future = task.getFuture();
+        AsyncTaskResult taskResult = (future == null) ? null : future.get();
+        if (taskResult != null) {
+          Object value = taskResult.getResult();
+          result = (value == null) ? "" : value.toString();
+        }
+      } catch (Exception e) {
+        error = true;
+        Throwable cause = (e.getCause() == null) ? e : e.getCause();
+        result = cause.toString();
+      }
+    }
+    JsonBuilder jb = new JsonBuilder();
+    jb.append("taskId", task.getTaskId());
+    jb.append("cancelled", cancelled);
+    jb.append("error", error);
+    jb.append("result", result);
+    return buildEvent(EVENT_DONE, jb.toString());
+  }
+
+  private String buildEvent(String name, String json) {
+    return "event: " + name + "\ndata: " + json + "\n\n";
+  }
+
+}
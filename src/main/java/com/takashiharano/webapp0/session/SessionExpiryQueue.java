@@ -0,0 +1,129 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Session IDs ordered by the expiration deadline.<br>
+ * The deadlines are rounded up to RESOLUTION_MILLIS and the sessions in the
+ * same slot are kept together. An access does not move the session in the
+ * queue; the sweeper re-schedules the session when it finds that the session
+ * has been accessed after it was scheduled. So the cost of a sweep is
+ * proportional to the number of the sessions that have reached the scheduled
+ * deadline.
+ */
+public class SessionExpiryQueue {
+
+  private static final long RESOLUTION_MILLIS = 1000;
+
+  private TreeMap<Long, Set<String>> slots;
+  private Map<String, Long> scheduledSlots;
+
+  public SessionExpiryQueue() {
+    slots = new TreeMap<>();
+    scheduledSlots = new HashMap<>();
+  }
+
+  /**
+   * Schedules the session at the deadline.<br>
+   * If the session is already scheduled, it is moved to the new deadline.
+   *
+   * @param sessionId
+   *          target session id
+   * @param deadline
+   *          the expiration time in unix millis
+   */
+  public synchronized void schedule(String sessionId, long deadline) {
+    long slot = ((deadline + RESOLUTION_MILLIS - 1) / RESOLUTION_MILLIS) * RESOLUTION_MILLIS;
+    Long prevSlot = scheduledSlots.put(sessionId, slot);
+    if (prevSlot != null) {
+      if (prevSlot == slot) {
+        return;
+      }
+      removeFromSlot(prevSlot, sessionId);
+    }
+    Set<String> sessionIds = slots.get(slot);
+    if (sessionIds == null) {
+      sessionIds = new LinkedHashSet<>();
+      slots.put(slot, sessionIds);
+    }
+    sessionIds.add(sessionId);
+  }
+
+  /**
+   * Removes the session from the queue.
+   *
+   * @param sessionId
+   *          target session id
+   */
+  public synchronized void remove(String sessionId) {
+    Long slot = scheduledSlots.remove(sessionId);
+    if (slot != null) {
+      removeFromSlot(slot, sessionId);
+    }
+  }
+
+  /**
+   * Removes and returns the sessions whose scheduled deadline is not later than
+   * the given time.
+   *
+   * @param now
+   *          the current time in unix millis
+   * @return the session ids
+   */
+  public synchronized List<String> pollDue(long now) {
+    List<String> sessionIds = new ArrayList<>();
+    while (!slots.isEmpty()) {
+      Entry<Long, Set<String>> entry = slots.firstEntry();
+      if (entry.getKey() > now) {
+        break;
+      }
+      slots.pollFirstEntry();
+      for (String sessionId : entry.getValue()) {
+        scheduledSlots.remove(sessionId);
+        sessionIds.add(sessionId);
+      }
+    }
+    return sessionIds;
+  }
+
+  /**
+   * Removes all sessions from the queue.
+   */
+  public synchronized void clear() {
+    slots.clear();
+    scheduledSlots.clear();
+  }
+
+  /**
+   * Returns the number of the scheduled sessions.
+   *
+   * @return the number of the sessions
+   */
+  public synchronized int size() {
+    return scheduledSlots.size();
+  }
+
+  private void removeFromSlot(long slot, String sessionId) {
+    Set<String> sessionIds = slots.get(slot);
+    if (sessionIds == null) {
+      return;
+    }
+    sessionIds.remove(sessionId);
+    if (sessionIds.isEmpty()) {
+      slots.remove(slot);
+    }
+  }
+
+}
@@ -11,14 +11,15 @@ public class SessionInfo {
 
   private String sessionId;
   private String userId;
-  private long lastAccessTime;
-  private String remoteAddr;
-  private String remoteHost;
-  private String userAgent;
+  private volatile long lastAccessTime;
+  private volatile String remoteAddr;
+  private volatile String remoteHost;
+  private volatile String userAgent;
   private long createdTime;
   private String createdRemoteAddr;
   private String createdRemoteHost;
   private String createdUserAgent;
+  private volatile long cookieIssuedTime;
 
   public SessionInfo(String sessionId, String userId, long timestamp, String remoteAddr, String remoteHost, String userAgent) {
     this(sessionId, userId, 0L, null, null, null, timestamp, remoteAddr, remoteHost, userAgent);
@@ -97,4 +98,18 @@ public class SessionInfo {
     return createdUserAgent;
   }
 
+  /**
+   * Returns the time the session cookie was last sent to the client.<br>
+   * This is not persisted. 0 for the sessions restored from the file.
+   *
+   * @return the timestamp in millis
+   */
+  public long getCookieIssuedTime() {
+    return cookieIssuedTime;
+  }
+
+  public void setCookieIssuedTime(long cookieIssuedTime) {
+    this.cookieIssuedTime = cookieIssuedTime;
+  }
+
 }
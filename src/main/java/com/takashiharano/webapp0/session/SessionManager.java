@@ -7,6 +7,7 @@ package com.takashiharano.webapp0.session;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -14,36 +15,84 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.servlet.http.Cookie;
-import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import com.libutil.CsvBuilder;
-import com.libutil.FileUtil;
 import com.libutil.HashUtil;
 import com.libutil.RandomGenerator;
-import com.libutil.RingBuffer;
 import com.libutil.StrUtil;
 import com.takashiharano.webapp0.AppManager;
 import com.takashiharano.webapp0.ProcessContext;
+import com.takashiharano.webapp0.storage.DataStore;
 import com.takashiharano.webapp0.user.UserManager;
 import com.takashiharano.webapp0.user.UserStatus;
 import com.takashiharano.webapp0.util.CsvFieldGetter;
 import com.takashiharano.webapp0.util.Log;
+import com.takashiharano.webapp0.util.StripedLock;
 
 public class SessionManager {
 
   public static final String SESSION_COOKIE_NAME = AppManager.MODULE_NAME + "_sid";
   private static final int DEFAULT_MAX_SESSIONS_PER_USER = 10;
-  private static final String TIMELINE_LOG_FILE_NAME = "timeline.log";
+  private static final int DEFAULT_SESSION_FLUSH_INTERVAL_SEC = 10;
+  private static final double DEFAULT_COOKIE_RENEWAL_RATIO = 0.5;
 
   private ConcurrentHashMap<String, SessionInfo> sessionMap;
+  private ConcurrentHashMap<String, UserSessions> userSessionsMap;
+  private SessionTimelineWriter timelineWriter;
+  private SessionExpiryQueue expiryQueue;
+  private int sessionTimeoutSec;
+  private int maxSessionsPerUser;
+  private boolean httpSessionEnabled;
+  private double cookieRenewalRatio;
+  private StripedLock userLocks;
+  private Set<String> dirtyUserIds;
+  private int flushIntervalSec;
+  private AtomicLong flushCount;
+  private AtomicLong flushedWriteCount;
+  private AtomicLong coalescedWriteCount;
+  private AtomicLong cookieRenewalCount;
+  private AtomicLong cookieRenewalSkipCount;
 
   public SessionManager() {
     sessionMap = new ConcurrentHashMap<>();
+    userSessionsMap = new ConcurrentHashMap<>();
+    timelineWriter = new SessionTimelineWriter();
+    expiryQueue = new SessionExpiryQueue();
+    userLocks = new StripedLock(64);
+    dirtyUserIds = ConcurrentHashMap.newKeySet();
+    flushIntervalSec = DEFAULT_SESSION_FLUSH_INTERVAL_SEC;
+    maxSessionsPerUser = DEFAULT_MAX_SESSIONS_PER_USER;
+    httpSessionEnabled = true;
+    cookieRenewalRatio = DEFAULT_COOKIE_RENEWAL_RATIO;
+    flushCount = new AtomicLong();
+    flushedWriteCount = new AtomicLong();
+    coalescedWriteCount = new AtomicLong();
+    cookieRenewalCount = new AtomicLong();
+    cookieRenewalSkipCount = new AtomicLong();
+  }
+
+  /**
+   * Loads the settings from the app config.<br>
+   * This is called by AppManager on every initialization.
+   */
+  public void loadConfig() {
+    AppManager appManager = AppManager.getInstance();
+    flushIntervalSec = appManager.getConfigValueAsInteger("session_flush_interval_sec", DEFAULT_SESSION_FLUSH_INTERVAL_SEC);
+    maxSessionsPerUser = appManager.getConfigValueAsInteger("max_sessions_per_user", DEFAULT_MAX_SESSIONS_PER_USER);
+    httpSessionEnabled = "true".equals(appManager.getConfigValue("use_http_session", "true"));
+    cookieRenewalRatio = appManager.getConfigValueAsDouble("session_cookie_renewal_ratio", DEFAULT_COOKIE_RENEWAL_RATIO);
+
+    int timeout = appManager.getConfigValueAsInteger("session_timeout_sec");
+    if (timeout != sessionTimeoutSec) {
+      sessionTimeoutSec = timeout;
+      rescheduleAllSessions();
+    }
   }
 
   /**
@@ -54,9 +103,7 @@ public class SessionManager {
    * @param timestamp
    *          timestamp of access time
    */
-  public synchronized void onAccess(ProcessContext context, long timestamp) {
-    cleanInvalidatedSessionInfo(true);
-
+  public void onAccess(ProcessContext context, long timestamp) {
     String sessionId = context.getSessionId();
     if (sessionId == null) {
       return;
@@ -67,7 +114,15 @@ public class SessionManager {
       return;
     }
 
+    // The session may have expired before the sweeper runs.
+    if (timestamp > getExpirationTime(sessionInfo)) {
+      expireSessionInfo(sessionInfo);
+      context.invalidatePrincipal();
+      return;
+    }
+
     sessionInfo.updateLastAccessTime(timestamp);
+    renewSessionCookieIfNeeded(context, sessionInfo, timestamp);
 
     String remoteAddr = context.getRemoteAddress(true);
     sessionInfo.setRemoteAddr(remoteAddr);
@@ -75,8 +130,17 @@ public class SessionManager {
     String ua = context.getUserAgent();
     sessionInfo.setUserAgent(ua);
 
-    String userId = context.getUserId();
-    saveSessionInfo(userId);
+    String userId = sessionInfo.getUserId();
+    UserSessions userSessions = userSessionsMap.get(userId);
+    if (userSessions != null) {
+      userSessions.touch(sessionId);
+    }
+
+    if (isWriteBehindEnabled()) {
+      markSessionInfoDirty(userId);
+    } else {
+      saveSessionInfo(userId);
+    }
 
     try {
       saveTimelineLog(userId, sessionId, timestamp);
@@ -92,7 +156,161 @@ public class SessionManager {
   public void onStop() {
     // Remove invalid info prior to save.
     cleanInvalidatedSessionInfo(false);
+    // Pending writes are covered by saving all.
+    dirtyUserIds.clear();
     saveAllSessionsInfo();
+    Log.i("Session info flush stats: flushes=" + getFlushCount() + " writes=" + getFlushedWriteCount() + " coalesced=" + getCoalescedWriteCount() + " lock_contention=" + getLockContentionCount());
+    Log.i("Session cookie stats: renewed=" + getCookieRenewalCount() + " skipped=" + getCookieRenewalSkipCount());
+  }
+
+  /**
+   * Returns the interval of the write-behind session info flush.<br>
+   * The value is defined in app.properties with "session_flush_interval_sec"
+   * field. 0 means that the session info is written on every access.
+   *
+   * @return the interval in seconds
+   */
+  public int getFlushInterval() {
+    return flushIntervalSec;
+  }
+
+  /**
+   * Returns whether the session info is written by the background flusher.
+   *
+   * @return true if the write-behind mode is enabled
+   */
+  public boolean isWriteBehindEnabled() {
+    return flushIntervalSec > 0;
+  }
+
+  /**
+   * Marks the session info of the user as modified.<br>
+   * The info will be written into the file on the next flush.
+   *
+   * @param userId
+   *          target user id
+   */
+  public void markSessionInfoDirty(String userId) {
+    if (!dirtyUserIds.add(userId)) {
+      coalescedWriteCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Writes the session info of the modified users into the files.<br>
+   * This is called periodically by SessionInfoFlusher. The users whose info
+   * could not be written are written in the next flush.
+   *
+   * @return the number of the written users
+   * @throws IOException
+   *           if the info of any user could not be written
+   */
+  public int flushDirtySessionInfo() throws IOException {
+    int count = 0;
+    List<String> failedUserIds = null;
+    Iterator<String> it = dirtyUserIds.iterator();
+    while (it.hasNext()) {
+      String userId = it.next();
+      it.remove();
+      try {
+        storeSessionInfo(userId);
+        count++;
+      } catch (IOException e) {
+        Log.e("Session info save error: userId=" + userId, e);
+        if (failedUserIds == null) {
+          failedUserIds = new ArrayList<>();
+        }
+        failedUserIds.add(userId);
+      }
+    }
+    // Marked again after the loop so that the iterator does not retry them now.
+    flushCount.incrementAndGet();
+    flushedWriteCount.addAndGet(count);
+    if (failedUserIds != null) {
+      dirtyUserIds.addAll(failedUserIds);
+      throw new IOException("Session info save failed: " + failedUserIds.size() + " user(s)");
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of the session file writes that had to wait for another
+   * thread writing the same user's file.
+   *
+   * @return the count
+   */
+  public long getLockContentionCount() {
+    return userLocks.getContentionCount();
+  }
+
+  /**
+   * Returns the number of the flush executions.
+   *
+   * @return the count
+   */
+  public long getFlushCount() {
+    return flushCount.get();
+  }
+
+  /**
+   * Returns the number of the files written by the flusher.
+   *
+   * @return the count
+   */
+  public long getFlushedWriteCount() {
+    return flushedWriteCount.get();
+  }
+
+  /**
+   * Sends the session cookie again when the remaining lifetime of the cookie
+   * issued last time is shorter than session_cookie_renewal_ratio of the
+   * session timeout.
+   *
+   * @param context
+   *          Process Context
+   * @param sessionInfo
+   *          the session of the request
+   * @param timestamp
+   *          the access time
+   */
+  private void renewSessionCookieIfNeeded(ProcessContext context, SessionInfo sessionInfo, long timestamp) {
+    long timeoutMillis = sessionTimeoutSec * 1000L;
+    long remaining = sessionInfo.getCookieIssuedTime() + timeoutMillis - timestamp;
+    if (remaining >= timeoutMillis * cookieRenewalRatio) {
+      cookieRenewalSkipCount.incrementAndGet();
+      return;
+    }
+    sessionInfo.setCookieIssuedTime(timestamp);
+    context.setSessionCookieMaxAge(sessionInfo.getSessionId(), sessionTimeoutSec);
+    cookieRenewalCount.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of the session cookies re-sent on access.
+   *
+   * @return the count
+   */
+  public long getCookieRenewalCount() {
+    return cookieRenewalCount.get();
+  }
+
+  /**
+   * Returns the number of the accesses that did not need to re-send the session
+   * cookie.
+   *
+   * @return the count
+   */
+  public long getCookieRenewalSkipCount() {
+    return cookieRenewalSkipCount.get();
+  }
+
+  /**
+   * Returns the number of the writes absorbed into a pending flush.
+   *
+   * @return the count
+   */
+  public long getCoalescedWriteCount() {
+    return coalescedWriteCount.get();
   }
 
   /**
@@ -112,59 +330,54 @@ public class SessionManager {
    */
   public void registerSessionInfo(SessionInfo info) {
     String userId = info.getUserId();
-    AppManager appManager = AppManager.getInstance();
-    int max = appManager.getConfigValueAsInteger("max_sessions_per_user", DEFAULT_MAX_SESSIONS_PER_USER);
-    int n = max - 1;
-    trimSessionInfo(userId, n);
-
     String sessionId = info.getSessionId();
     sessionMap.put(sessionId, info);
-  }
+    expiryQueue.schedule(sessionId, getExpirationTime(info));
 
-  private void trimSessionInfo(String userId, int n) {
-    List<Long> timeList = new ArrayList<>();
-    int count = 0;
-    for (Entry<String, SessionInfo> entry : sessionMap.entrySet()) {
-      String sessionId = entry.getKey();
-      SessionInfo info = sessionMap.get(sessionId);
-      String uid = info.getUserId();
-      if (uid.equals(userId)) {
-        long time = info.getLastAccessTime();
-        timeList.add(time);
-        count++;
+    List<SessionInfo> exceeded = new ArrayList<>();
+    userSessionsMap.compute(userId, (k, userSessions) -> {
+      if (userSessions == null) {
+        userSessions = new UserSessions();
       }
+      userSessions.add(info);
+      exceeded.addAll(userSessions.trim(maxSessionsPerUser));
+      return userSessions;
+    });
+
+    for (int i = 0; i < exceeded.size(); i++) {
+      SessionInfo exceededInfo = exceeded.get(i);
+      Log.i("Logout: EXCEED_MAX user=" + userId + " sid=" + exceededInfo.getShortSessionId());
+      removeSessionInfo(exceededInfo.getSessionId());
     }
+  }
 
-    if (count <= n) {
-      return;
-    }
-
-    timeList.stream().sorted(Comparator.reverseOrder()).collect(Collectors.toList());
-
-    for (Entry<String, SessionInfo> entry : sessionMap.entrySet()) {
-      String sessionId = entry.getKey();
-      SessionInfo info = sessionMap.get(sessionId);
-      String uid = info.getUserId();
-      if (uid.equals(userId)) {
-        long time = info.getLastAccessTime();
-        if (!inListSizeRange(timeList, n, time)) {
-          Log.i("Logout: EXCEED_MAX user=" + userId + " sid=" + info.getShortSessionId());
-          removeSessionInfo(sessionId);
-        }
-      }
-    }
+  /**
+   * Removes the session from the per-user index.
+   *
+   * @param info
+   *          the session info
+   */
+  private void unindexSessionInfo(SessionInfo info) {
+    String sessionId = info.getSessionId();
+    userSessionsMap.computeIfPresent(info.getUserId(), (k, userSessions) -> {
+      userSessions.remove(sessionId);
+      return userSessions.isEmpty() ? null : userSessions;
+    });
   }
 
-  private boolean inListSizeRange(List<Long> vList, int n, long v) {
-    if (n > vList.size()) {
-      n = vList.size();
-    }
-    for (int i = 0; i < n; i++) {
-      if (v == vList.get(i)) {
-        return true;
-      }
+  /**
+   * Returns the sessions of the user in order of the last access.
+   *
+   * @param userId
+   *          target user id
+   * @return the list of the session info. empty if the user has no session.
+   */
+  public List<SessionInfo> getUserSessionInfoList(String userId) {
+    UserSessions userSessions = userSessionsMap.get(userId);
+    if (userSessions == null) {
+      return new ArrayList<>();
     }
-    return false;
+    return userSessions.toList();
   }
 
   /**
@@ -202,16 +415,11 @@ public class SessionManager {
    * @return the session count for the user
    */
   public int countUserSessions(String userId) {
-    int count = 0;
-    for (Entry<String, SessionInfo> entry : sessionMap.entrySet()) {
-      String sessionId = entry.getKey();
-      SessionInfo info = sessionMap.get(sessionId);
-      String uid = info.getUserId();
-      if (uid.equals(userId)) {
-        count++;
-      }
+    UserSessions userSessions = userSessionsMap.get(userId);
+    if (userSessions == null) {
+      return 0;
     }
-    return count;
+    return userSessions.size();
   }
 
   /**
@@ -221,9 +429,30 @@ public class SessionManager {
    * @return timeout in seconds
    */
   public int getSessionTimeout() {
-    AppManager appManager = AppManager.getInstance();
-    int timeout = appManager.getConfigValueAsInteger("session_timeout_sec");
-    return timeout;
+    return sessionTimeoutSec;
+  }
+
+  /**
+   * Returns the time when the session expires unless it is accessed.
+   *
+   * @param info
+   *          the session info
+   * @return the expiration time in unix millis
+   */
+  private long getExpirationTime(SessionInfo info) {
+    return info.getLastAccessTime() + sessionTimeoutSec * 1000L;
+  }
+
+  /**
+   * Rebuilds the expiry queue with the current timeout setting.
+   */
+  private void rescheduleAllSessions() {
+    expiryQueue.clear();
+    for (Entry<String, SessionInfo> entry : sessionMap.entrySet()) {
+      String sessionId = entry.getKey();
+      SessionInfo info = entry.getValue();
+      expiryQueue.schedule(sessionId, getExpirationTime(info));
+    }
   }
 
   /**
@@ -243,7 +472,13 @@ public class SessionManager {
    * @return removed session info
    */
   public SessionInfo removeSessionInfo(String sessionId) {
-    return sessionMap.remove(sessionId);
+    timelineWriter.removeSession(sessionId);
+    expiryQueue.remove(sessionId);
+    SessionInfo info = sessionMap.remove(sessionId);
+    if (info != null) {
+      unindexSessionInfo(info);
+    }
+    return info;
   }
 
   /**
@@ -253,70 +488,102 @@ public class SessionManager {
    *          target user id
    */
   public void removeSessionInfoByUsername(String userId) {
-    for (Entry<String, SessionInfo> entry : sessionMap.entrySet()) {
-      String sessionId = entry.getKey();
-      SessionInfo sessionInfo = sessionMap.get(sessionId);
-      String uid = sessionInfo.getUserId();
-      if (uid.equals(userId)) {
-        sessionMap.remove(sessionId);
-      }
+    List<SessionInfo> sessions = getUserSessionInfoList(userId);
+    for (int i = 0; i < sessions.size(); i++) {
+      SessionInfo sessionInfo = sessions.get(i);
+      removeSessionInfo(sessionInfo.getSessionId());
     }
   }
 
+  /**
+   * Loads the session info of all users.<br>
+   * The files are read in parallel on the common fork-join pool.
+   */
   public void loadAllSessionsInfo() {
     AppManager appManager = AppManager.getInstance();
     UserManager userManager = appManager.getUserManager();
     String[] userIds = userManager.getAllUserIds();
-    int sessionCount = 0;
-    for (int i = 0; i < userIds.length; i++) {
-      String userId = userIds[i];
-      int count = loadSessionInfo(userId);
-      sessionCount += count;
-    }
+    int sessionCount = Arrays.stream(userIds).parallel().mapToInt(this::loadSessionInfo).sum();
     Log.i("Total " + sessionCount + " session info loaded");
   }
 
   /**
-   * Loads session info from a file.
+   * Loads session info from the DataStore.
    *
-   * @param path
-   *          Session info file path
+   * @param userId
+   *          target user id
    */
   public int loadSessionInfo(String userId) {
-    String path = getUserSessionPath(userId);
-    String[] records = FileUtil.readTextAsArray(path);
+    String key = getUserSessionKey(userId);
+    String[] records = getDataStore().readLines(key);
     if (records == null) {
       return 0;
     }
 
-    int count = 0;
+    List<SessionInfo> sessions = new ArrayList<>();
     for (int i = 0; i < records.length; i++) {
       String record = records[i];
       if (record.startsWith("#")) {
         continue;
       }
       try {
-        restoreSessionInfo(record);
-        count++;
+        SessionInfo info = restoreSessionInfo(record);
+        sessions.add(info);
       } catch (Exception e) {
         Log.e("Session restore error: userId=" + userId + ": " + e.toString());
       }
     }
 
+    int count = registerUserSessions(userId, sessions);
     if (count > 0) {
-      Log.i(count + " session info loaded: userId=" + userId);
+      Log.d(() -> count + " session info loaded: userId=" + userId);
     }
 
     return count;
   }
 
   /**
-   * Restores the session info to memory
+   * Registers the restored sessions of a user at once.<br>
+   * Only the most recently accessed sessions up to max_sessions_per_user are
+   * registered.
+   *
+   * @param userId
+   *          the user id
+   * @param sessions
+   *          the restored sessions
+   * @return the number of the registered sessions
+   */
+  private int registerUserSessions(String userId, List<SessionInfo> sessions) {
+    // Register in order of the last access to restore the per-user order.
+    sessions.sort(Comparator.comparingLong(SessionInfo::getLastAccessTime));
+    int start = 0;
+    if (sessions.size() > maxSessionsPerUser) {
+      start = sessions.size() - maxSessionsPerUser;
+      Log.i("Logout: EXCEED_MAX user=" + userId + " count=" + start);
+    }
+
+    UserSessions userSessions = new UserSessions();
+    for (int i = start; i < sessions.size(); i++) {
+      SessionInfo info = sessions.get(i);
+      String sessionId = info.getSessionId();
+      sessionMap.put(sessionId, info);
+      expiryQueue.schedule(sessionId, getExpirationTime(info));
+      userSessions.add(info);
+    }
+    if (!userSessions.isEmpty()) {
+      userSessionsMap.put(userId, userSessions);
+    }
+    return userSessions.size();
+  }
+
+  /**
+   * Restores the session info from a record.
    *
    * @param record
    *          session record
+   * @return the session info
    */
-  private void restoreSessionInfo(String record) {
+  private SessionInfo restoreSessionInfo(String record) {
     CsvFieldGetter csvFieldGetter = new CsvFieldGetter(record, "\t");
     String sessionId = csvFieldGetter.getFieldValue();
     String userId = csvFieldGetter.getFieldValue();
@@ -330,7 +597,7 @@ public class SessionManager {
     String loginUserAgent = csvFieldGetter.getFieldValue();
 
     SessionInfo info = new SessionInfo(sessionId, userId, lastAccessTime, remoteAddr, remoteHost, userAgent, loginTime, loginRemoteAddr, loginRemoteHost, loginUserAgent);
-    registerSessionInfo(info);
+    return info;
   }
 
   /**
@@ -367,16 +634,31 @@ public class SessionManager {
    * @return saved session count
    */
   public int saveSessionInfo(String userId) {
+    try {
+      return storeSessionInfo(userId);
+    } catch (IOException e) {
+      Log.e("Session info save error: userId=" + userId, e);
+      return 0;
+    }
+  }
+
+  private int storeSessionInfo(String userId) throws IOException {
+    ReentrantLock lock = userLocks.lock(userId);
+    try {
+      return writeSessionInfo(userId);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int writeSessionInfo(String userId) throws IOException {
     int count = 0;
     CsvBuilder csvBuilder = new CsvBuilder("\t");
     csvBuilder = buildTsvHeader(csvBuilder);
-    for (Entry<String, SessionInfo> entry : sessionMap.entrySet()) {
-      String sessionId = entry.getKey();
-      SessionInfo session = sessionMap.get(sessionId);
-      String uid = session.getUserId();
-      if (!uid.equals(userId)) {
-        continue;
-      }
+    List<SessionInfo> sessions = getUserSessionInfoList(userId);
+    for (int i = 0; i < sessions.size(); i++) {
+      SessionInfo session = sessions.get(i);
+      String sessionId = session.getSessionId();
 
       long lastAccessTime = session.getLastAccessTime();
       String remoteAddr = session.getRemoteAddr();
@@ -402,19 +684,14 @@ public class SessionManager {
       count++;
     }
 
-    String path = getUserSessionPath(userId);
-
+    String key = getUserSessionKey(userId);
+    DataStore store = getDataStore();
+    String text = csvBuilder.toString();
     if (count == 0) {
-      FileUtil.delete(path);
+      store.delete(key);
       return 0;
     }
-
-    String text = csvBuilder.toString();
-    try {
-      FileUtil.write(path, text);
-    } catch (IOException e) {
-      Log.e("Session info save error: userId=" + userId, e);
-    }
+    store.write(key, text);
 
     return count;
   }
@@ -434,10 +711,12 @@ public class SessionManager {
     return csvBuilder;
   }
 
-  private String getUserSessionPath(String userId) {
-    String userDataPath = UserManager.getUserDataPath(userId);
-    String path = FileUtil.joinPath(userDataPath, "sessions.txt");
-    return path;
+  private String getUserSessionKey(String userId) {
+    return UserManager.getUserDataKey(userId, "sessions.txt");
+  }
+
+  private DataStore getDataStore() {
+    return AppManager.getInstance().getDataStore();
   }
 
   /**
@@ -460,6 +739,7 @@ public class SessionManager {
 
     SessionInfo sessionInfo = createNewSession(context, userId);
     registerSessionInfo(sessionInfo);
+    context.setPrincipal(sessionInfo);
 
     return sessionInfo;
   }
@@ -474,11 +754,6 @@ public class SessionManager {
    * @return new session object
    */
   private SessionInfo createNewSession(ProcessContext context, String userId) {
-    // Recreate session
-    HttpServletRequest request = context.getRequest();
-    HttpSession session = request.getSession();
-    session.invalidate();
-    session = request.getSession(true);
     long now = System.currentTimeMillis();
     String sessionId = generateSessionId(now, userId);
     String remoteAddr = context.getRemoteAddr();
@@ -486,15 +761,45 @@ public class SessionManager {
     String userAgent = context.getUserAgent();
 
     SessionInfo sessionInfo = new SessionInfo(sessionId, userId, now, remoteAddr, remoteHost, userAgent, now, remoteAddr, remoteHost, userAgent);
+    sessionInfo.setCookieIssuedTime(now);
 
     // Set session expiration
     int sessionTimeoutSec = getSessionTimeout();
-    session.setMaxInactiveInterval(sessionTimeoutSec);
+    renewHttpSession(context, sessionTimeoutSec);
     context.setSessionCookieMaxAge(sessionId, sessionTimeoutSec);
 
     return sessionInfo;
   }
 
+  /**
+   * Replaces the container session with a new one on login.<br>
+   * The container session is not created when use_http_session is false.
+   *
+   * @param context
+   *          Process Context
+   * @param sessionTimeoutSec
+   *          the session timeout in seconds
+   */
+  private void renewHttpSession(ProcessContext context, int sessionTimeoutSec) {
+    HttpSession session = context.getHttpSession();
+    if (session != null) {
+      session.invalidate();
+    }
+    session = context.getHttpSession(true);
+    if (session != null) {
+      session.setMaxInactiveInterval(sessionTimeoutSec);
+    }
+  }
+
+  /**
+   * Returns whether the container session (HttpSession) is used.
+   *
+   * @return true if the app may create the container session
+   */
+  public boolean isHttpSessionEnabled() {
+    return httpSessionEnabled;
+  }
+
   /**
    * Generate a session ID.
    *
@@ -512,33 +817,73 @@ public class SessionManager {
   }
 
   /**
-   * Removes expired session info from the management map.
+   * Removes expired session info from the management map.<br>
+   * Only the sessions that have reached the scheduled deadline are examined.
+   * The sessions accessed after being scheduled are re-scheduled.
+   *
+   * @param flush
+   *          if true, the session info of the users are saved
    */
   public void cleanInvalidatedSessionInfo(boolean flush) {
     long now = System.currentTimeMillis();
-    AppManager appManager = AppManager.getInstance();
-    int sessionTimeoutSec = appManager.getConfigValueAsInteger("session_timeout_sec");
-    long timeoutMillis = sessionTimeoutSec * 1000;
     Set<String> clearedUserIds = new LinkedHashSet<>();
 
-    for (Entry<String, SessionInfo> entry : sessionMap.entrySet()) {
-      String sessionId = entry.getKey();
+    List<String> sessionIds = expiryQueue.pollDue(now);
+    for (int i = 0; i < sessionIds.size(); i++) {
+      String sessionId = sessionIds.get(i);
       SessionInfo sessionInfo = sessionMap.get(sessionId);
-      long lastAccessTime = sessionInfo.getLastAccessTime();
-      long elapsed = now - lastAccessTime;
-      if (elapsed > timeoutMillis) {
-        String userId = sessionInfo.getUserId();
-        Log.i("Logout: EXPIRED user=" + userId + " sid=" + sessionInfo.getShortSessionId());
-        sessionMap.remove(sessionId);
-        clearedUserIds.add(userId);
+      if (sessionInfo == null) {
+        continue;
+      }
+      long expirationTime = getExpirationTime(sessionInfo);
+      if (now <= expirationTime) {
+        expiryQueue.schedule(sessionId, expirationTime);
+      } else if (removeExpiredSessionInfo(sessionInfo)) {
+        clearedUserIds.add(sessionInfo.getUserId());
       }
     }
 
     if (flush) {
-      flushSessionInfo(clearedUserIds);
+      if (isWriteBehindEnabled()) {
+        for (String userId : clearedUserIds) {
+          markSessionInfoDirty(userId);
+        }
+      } else {
+        flushSessionInfo(clearedUserIds);
+      }
     }
   }
 
+  /**
+   * Removes the expired session info and saves the user's session info.
+   *
+   * @param sessionInfo
+   *          the expired session info
+   */
+  private void expireSessionInfo(SessionInfo sessionInfo) {
+    if (!removeExpiredSessionInfo(sessionInfo)) {
+      return;
+    }
+    String userId = sessionInfo.getUserId();
+    if (isWriteBehindEnabled()) {
+      markSessionInfoDirty(userId);
+    } else {
+      saveSessionInfo(userId);
+    }
+  }
+
+  private boolean removeExpiredSessionInfo(SessionInfo sessionInfo) {
+    String sessionId = sessionInfo.getSessionId();
+    if (!sessionMap.remove(sessionId, sessionInfo)) {
+      return false;
+    }
+    unindexSessionInfo(sessionInfo);
+    expiryQueue.remove(sessionId);
+    timelineWriter.removeSession(sessionId);
+    Log.i("Logout: EXPIRED user=" + sessionInfo.getUserId() + " sid=" + sessionInfo.getShortSessionId());
+    return true;
+  }
+
   private void flushSessionInfo(Set<String> clearedUserIds) {
     int size = clearedUserIds.size();
     Iterator<String> it = clearedUserIds.iterator();
@@ -562,8 +907,11 @@ public class SessionManager {
     HttpSession httpSession = context.getHttpSession();
     String sessionId = context.getSessionId();
     logout(sessionId);
-    httpSession.invalidate();
+    if (httpSession != null) {
+      httpSession.invalidate();
+    }
     invalidateSessionCookie(context);
+    context.invalidatePrincipal();
   }
 
   /**
@@ -612,14 +960,7 @@ public class SessionManager {
    *          target user id
    */
   public void clearUserSessions(String userId) {
-    for (Entry<String, SessionInfo> entry : sessionMap.entrySet()) {
-      String sessionId = entry.getKey();
-      SessionInfo sessionInfo = sessionMap.get(sessionId);
-      String uid = sessionInfo.getUserId();
-      if (uid.equals(userId)) {
-        sessionMap.remove(sessionId);
-      }
-    }
+    removeSessionInfoByUsername(userId);
   }
 
   private void invalidateSessionCookie(ProcessContext context) {
@@ -644,12 +985,6 @@ public class SessionManager {
     return loadTimelineLog(userId);
   }
 
-  private String getTimelineLogFilePath(String userId) {
-    String userDataPath = UserManager.getUserDataPath(userId);
-    String path = FileUtil.joinPath(userDataPath, TIMELINE_LOG_FILE_NAME);
-    return path;
-  }
-
   /**
    * Load user timeline log from a storage.
    *
@@ -658,73 +993,63 @@ public class SessionManager {
    * @return Log text array
    */
   public String[] loadTimelineLog(String userId) {
-    String path = getTimelineLogFilePath(userId);
-    String[] logs = FileUtil.readTextAsArray(path);
+    String key = SessionTimelineWriter.getTimelineLogKey(userId);
+    String[] logs = getDataStore().readLines(key);
     if (logs == null) {
       logs = new String[0];
     }
     return logs;
   }
 
+  /**
+   * Writes a timeline log of the session.<br>
+   * Nothing is written if the session already has a log in the current time
+   * slot.
+   *
+   * @param userId
+   *          target user id
+   * @param sid
+   *          target session id
+   * @param timestamp
+   *          the time of the log
+   * @throws IOException
+   *           if an IO error occurs
+   */
   public void saveTimelineLog(String userId, String sid, long timestamp) throws IOException {
     saveTimelineLog(userId, sid, timestamp, null);
   }
 
+  /**
+   * Writes a timeline log of the session.
+   *
+   * @param userId
+   *          target user id
+   * @param sid
+   *          target session id
+   * @param timestamp
+   *          the time of the log
+   * @param info
+   *          additional info
+   * @throws IOException
+   *           if an IO error occurs
+   */
   public void saveTimelineLog(String userId, String sid, long timestamp, String info) throws IOException {
-    int TIME_SLOT_MIN = 15;
-    int MAX_LOG_LINES = 1000;
-    String[] logLines = loadTimelineLog(userId);
-
-    RingBuffer<String> logs = new RingBuffer<>(MAX_LOG_LINES);
-    for (int i = 0; i < logLines.length; i++) {
-      String line = logLines[i];
-      logs.add(line);
-    }
-
-    long timeSlotMillis = TIME_SLOT_MIN * 60000;
-
-    List<String> logList = logs.getAll();
-
-    for (int i = logList.size() - 1; i >= 0; i--) {
-      String line = logList.get(i);
-      String[] wk = line.split("\t");
-      long logTime;
-      String logSid;
-      try {
-        logTime = Long.parseLong(wk[0]);
-        logSid = wk[1];
-      } catch (Exception e) {
-        logTime = 0;
-        logSid = "";
-      }
-
-      if (logSid.equals(sid)) {
-        long logTimeSlotSec = (long) (logTime / timeSlotMillis) * timeSlotMillis;
-        long elapsedFromLatest = timestamp - logTimeSlotSec;
-        if (elapsedFromLatest <= timeSlotMillis) {
-          return;
-        }
-      }
-    }
-
-    String newLog = timestamp + "\t" + sid;
-    if (info != null) {
-      newLog += "\t" + info;
-    }
-    logs.add(newLog);
-
-    String path = getTimelineLogFilePath(userId);
+    timelineWriter.write(userId, sid, timestamp, info);
+  }
 
-    logList = logs.getAll();
-    StringBuffer sb = new StringBuffer();
-    for (int i = 0; i < logList.size(); i++) {
-      String line = logList.get(i);
-      sb.append(line);
-      sb.append("\n");
+  /**
+   * Trims the timeline logs and discards the state of the ended sessions.<br>
+   * This is called periodically by TimelineLogCompactor.
+   *
+   * @throws IOException
+   *           if any log could not be trimmed
+   */
+  public void compactTimelineLog() throws IOException {
+    timelineWriter.retainSessions(sessionMap.keySet());
+    int count = timelineWriter.compact();
+    if (count > 0) {
+      Log.i(count + " timeline log(s) compacted");
     }
-
-    String text = sb.toString();
-    FileUtil.write(path, text);
   }
 
 }
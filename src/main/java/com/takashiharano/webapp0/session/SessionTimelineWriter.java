@@ -0,0 +1,249 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.session;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.storage.DataStore;
+import com.takashiharano.webapp0.user.UserManager;
+import com.takashiharano.webapp0.util.Log;
+import com.takashiharano.webapp0.util.StripedLock;
+
+/**
+ * Appends the session timeline logs.<br>
+ * The last written time of each session is kept in memory so that the
+ * accesses in the same time slot do not touch the storage. The files are
+ * trimmed to MAX_LOG_LINES by compact() in the background.
+ */
+public class SessionTimelineWriter {
+
+  public static final String TIMELINE_LOG_FILE_NAME = "timeline.log";
+  public static final int TIME_SLOT_MIN = 15;
+  public static final int MAX_LOG_LINES = 1000;
+
+  private static final long TIME_SLOT_MILLIS = TIME_SLOT_MIN * 60000L;
+
+  private ConcurrentHashMap<String, Long> lastWrittenTimeMap;
+  private ConcurrentHashMap<String, AtomicInteger> appendedCountMap;
+  private StripedLock userLocks;
+
+  public SessionTimelineWriter() {
+    lastWrittenTimeMap = new ConcurrentHashMap<>();
+    appendedCountMap = new ConcurrentHashMap<>();
+    userLocks = new StripedLock(64);
+  }
+
+  /**
+   * Returns the key of the timeline log of the user in the DataStore.
+   *
+   * @param userId
+   *          target user id
+   * @return the key
+   */
+  public static String getTimelineLogKey(String userId) {
+    return UserManager.getUserDataKey(userId, TIMELINE_LOG_FILE_NAME);
+  }
+
+  /**
+   * Writes a timeline log if the session has no log in the current time slot.
+   *
+   * @param userId
+   *          target user id
+   * @param sid
+   *          target session id
+   * @param timestamp
+   *          the time of the log
+   * @param info
+   *          additional info. null if not necessary
+   * @return true if the log has been written
+   * @throws IOException
+   *           if an IO error occurs
+   */
+  public boolean write(String userId, String sid, long timestamp, String info) throws IOException {
+    Long lastTime = lastWrittenTimeMap.get(sid);
+    if (lastTime == null) {
+      long foundTime = findLastLogTime(userId, sid);
+      lastWrittenTimeMap.putIfAbsent(sid, foundTime);
+      lastTime = lastWrittenTimeMap.get(sid);
+      if (lastTime == null) {
+        return false;
+      }
+    }
+
+    if (isInSameTimeSlot(lastTime, timestamp)) {
+      return false;
+    }
+
+    // Claim the slot. Another request of the same session may have taken it.
+    if (!lastWrittenTimeMap.replace(sid, lastTime, timestamp)) {
+      return false;
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(timestamp);
+    sb.append("\t");
+    sb.append(sid);
+    if (info != null) {
+      sb.append("\t");
+      sb.append(info);
+    }
+    sb.append("\n");
+
+    ReentrantLock lock = userLocks.lock(userId);
+    try {
+      getDataStore().append(getTimelineLogKey(userId), sb.toString());
+    } catch (IOException e) {
+      // Give back the slot so that the next request writes it.
+      lastWrittenTimeMap.replace(sid, timestamp, lastTime);
+      throw e;
+    } finally {
+      lock.unlock();
+    }
+
+    getAppendedCount(userId).incrementAndGet();
+    return true;
+  }
+
+  private boolean isInSameTimeSlot(long logTime, long timestamp) {
+    if (logTime <= 0) {
+      return false;
+    }
+    long logTimeSlot = (logTime / TIME_SLOT_MILLIS) * TIME_SLOT_MILLIS;
+    long elapsedFromLatest = timestamp - logTimeSlot;
+    return elapsedFromLatest <= TIME_SLOT_MILLIS;
+  }
+
+  private DataStore getDataStore() {
+    return AppManager.getInstance().getDataStore();
+  }
+
+  /**
+   * Looks up the latest log time of the session from the storage.<br>
+   * This is called only once per session after the application started.
+   */
+  private long findLastLogTime(String userId, String sid) {
+    String[] lines = getDataStore().readLines(getTimelineLogKey(userId));
+    if (lines == null) {
+      return 0L;
+    }
+    for (int i = lines.length - 1; i >= 0; i--) {
+      String line = lines[i];
+      int p1 = line.indexOf('\t');
+      if (p1 < 0) {
+        continue;
+      }
+      int p2 = line.indexOf('\t', p1 + 1);
+      if (p2 < 0) {
+        p2 = line.length();
+      }
+      String logSid = line.substring(p1 + 1, p2);
+      if (!logSid.equals(sid)) {
+        continue;
+      }
+      try {
+        return Long.parseLong(line.substring(0, p1));
+      } catch (NumberFormatException e) {
+        return 0L;
+      }
+    }
+    return 0L;
+  }
+
+  /**
+   * Discards the in-memory state of the session.
+   *
+   * @param sid
+   *          target session id
+   */
+  public void removeSession(String sid) {
+    lastWrittenTimeMap.remove(sid);
+  }
+
+  /**
+   * Discards the in-memory state of the sessions that no longer exist.
+   *
+   * @param liveSessionIds
+   *          the ids of the live sessions
+   */
+  public void retainSessions(Set<String> liveSessionIds) {
+    Iterator<String> it = lastWrittenTimeMap.keySet().iterator();
+    while (it.hasNext()) {
+      String sid = it.next();
+      if (!liveSessionIds.contains(sid)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Trims the log files that have been appended since the last compaction to
+   * MAX_LOG_LINES.<br>
+   * The files that could not be trimmed are tried again in the next
+   * compaction.
+   *
+   * @return the number of the compacted files
+   * @throws IOException
+   *           if any file could not be trimmed
+   */
+  public int compact() throws IOException {
+    int count = 0;
+    IOException error = null;
+    for (Entry<String, AtomicInteger> entry : appendedCountMap.entrySet()) {
+      String userId = entry.getKey();
+      AtomicInteger appended = entry.getValue();
+      int n = appended.getAndSet(0);
+      if (n == 0) {
+        continue;
+      }
+      try {
+        if (compact(userId)) {
+          count++;
+        }
+      } catch (IOException ioe) {
+        Log.e("Timeline log compaction error: user=" + userId + ": " + ioe);
+        appended.addAndGet(n);
+        error = ioe;
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+    return count;
+  }
+
+  private boolean compact(String userId) throws IOException {
+    DataStore store = getDataStore();
+    String key = getTimelineLogKey(userId);
+    ReentrantLock lock = userLocks.lock(userId);
+    try {
+      String[] lines = store.readLines(key);
+      if ((lines == null) || (lines.length <= MAX_LOG_LINES)) {
+        return false;
+      }
+      StringBuilder sb = new StringBuilder();
+      for (int i = lines.length - MAX_LOG_LINES; i < lines.length; i++) {
+        sb.append(lines[i]);
+        sb.append("\n");
+      }
+      store.write(key, sb.toString());
+    } finally {
+      lock.unlock();
+    }
+    return true;
+  }
+
+  private AtomicInteger getAppendedCount(String userId) {
+    return appendedCountMap.computeIfAbsent(userId, k -> new AtomicInteger());
+  }
+
+}
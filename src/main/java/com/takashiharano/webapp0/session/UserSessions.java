@@ -0,0 +1,104 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.session;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The sessions of a user ordered by the last access.<br>
+ * The first element is the least recently accessed session.
+ */
+public class UserSessions {
+
+  private LinkedHashMap<String, SessionInfo> sessions;
+
+  public UserSessions() {
+    sessions = new LinkedHashMap<>(4, 0.75f, true);
+  }
+
+  /**
+   * Adds the session as the most recently accessed one.
+   *
+   * @param info
+   *          the session info
+   */
+  public synchronized void add(SessionInfo info) {
+    sessions.put(info.getSessionId(), info);
+  }
+
+  /**
+   * Removes the session.
+   *
+   * @param sessionId
+   *          target session id
+   * @return the removed session info. null if not found.
+   */
+  public synchronized SessionInfo remove(String sessionId) {
+    return sessions.remove(sessionId);
+  }
+
+  /**
+   * Moves the session to the most recently accessed position.
+   *
+   * @param sessionId
+   *          target session id
+   */
+  public synchronized void touch(String sessionId) {
+    sessions.get(sessionId);
+  }
+
+  /**
+   * Removes the least recently accessed sessions so that the number of the
+   * sessions does not exceed the limit.
+   *
+   * @param max
+   *          the maximum number of the sessions
+   * @return the removed sessions
+   */
+  public synchronized List<SessionInfo> trim(int max) {
+    List<SessionInfo> removed = new ArrayList<>();
+    Iterator<SessionInfo> it = sessions.values().iterator();
+    int n = sessions.size();
+    while ((n > max) && it.hasNext()) {
+      SessionInfo info = it.next();
+      it.remove();
+      removed.add(info);
+      n--;
+    }
+    return removed;
+  }
+
+  /**
+   * Returns the number of the sessions.
+   *
+   * @return the number of the sessions
+   */
+  public synchronized int size() {
+    return sessions.size();
+  }
+
+  /**
+   * Returns whether the user has no session.
+   *
+   * @return true if no session exists
+   */
+  public synchronized boolean isEmpty() {
+    return sessions.isEmpty();
+  }
+
+  /**
+   * Returns the sessions in order of the last access.
+   *
+   * @return the list of the sessions
+   */
+  public synchronized List<SessionInfo> toList() {
+    return new ArrayList<>(sessions.values());
+  }
+
+}
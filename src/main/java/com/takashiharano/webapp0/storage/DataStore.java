@@ -0,0 +1,107 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.storage;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The storage of the application data.<br>
+ * The data is a set of text entries addressed by a key in the form of a
+ * relative path such as "users.txt" or "users/USER_ID/status.txt".<br>
+ * An implementation must be thread-safe and must have a public constructor
+ * that takes the workspace path.
+ */
+public interface DataStore {
+
+  /**
+   * Reads the entry.
+   *
+   * @param key
+   *          the key
+   * @return the text. null if the entry does not exist.
+   */
+  String read(String key);
+
+  /**
+   * Reads the entry as lines.
+   *
+   * @param key
+   *          the key
+   * @return the lines. null if the entry does not exist.
+   */
+  String[] readLines(String key);
+
+  /**
+   * Writes the entry. The entry is replaced if it exists.
+   *
+   * @param key
+   *          the key
+   * @param text
+   *          the text
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  void write(String key, String text) throws IOException;
+
+  /**
+   * Appends the text to the entry. The entry is created if it does not exist.
+   *
+   * @param key
+   *          the key
+   * @param text
+   *          the text
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  void append(String key, String text) throws IOException;
+
+  /**
+   * Deletes the entry.
+   *
+   * @param key
+   *          the key
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  void delete(String key) throws IOException;
+
+  /**
+   * Deletes all entries whose key starts with the prefix.
+   *
+   * @param prefix
+   *          the key prefix such as "users/USER_ID/"
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  void deleteAll(String prefix) throws IOException;
+
+  /**
+   * Returns the keys that start with the prefix.
+   *
+   * @param prefix
+   *          the key prefix. "" for all entries.
+   * @return the keys
+   */
+  List<String> list(String prefix);
+
+  /**
+   * Makes the changes durable.
+   *
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  void flush() throws IOException;
+
+  /**
+   * Flushes the changes and releases the resources.
+   *
+   * @throws IOException
+   *           if the changes could not be written
+   */
+  void close() throws IOException;
+
+}
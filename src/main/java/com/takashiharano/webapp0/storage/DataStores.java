@@ -0,0 +1,61 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.storage;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * The factory of the DataStore.
+ */
+public class DataStores {
+
+  public static final String TYPE_FILE = "file";
+  public static final String TYPE_KV = "kv";
+
+  /**
+   * Creates the DataStore.
+   *
+   * @param type
+   *          "file", "kv" or the fully qualified name of the DataStore class
+   * @param basePath
+   *          the workspace path
+   * @return the store
+   * @throws Exception
+   *           if the store cannot be created
+   */
+  public static DataStore create(String type, String basePath) throws Exception {
+    return create(type, basePath, KeyValueDataStore.DEFAULT_COMMIT_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Creates the DataStore.
+   *
+   * @param type
+   *          "file", "kv" or the fully qualified name of the DataStore class
+   * @param basePath
+   *          the workspace path
+   * @param commitIntervalMillis
+   *          the commit interval of the "kv" store
+   * @return the store
+   * @throws Exception
+   *           if the store cannot be created
+   */
+  public static DataStore create(String type, String basePath, int commitIntervalMillis) throws Exception {
+    if ((type == null) || "".equals(type) || TYPE_FILE.equals(type)) {
+      return new FileDataStore(basePath);
+    } else if (TYPE_KV.equals(type)) {
+      return new KeyValueDataStore(basePath, commitIntervalMillis);
+    }
+
+    Class<?> c = Class.forName(type);
+    if (!DataStore.class.isAssignableFrom(c)) {
+      throw new Exception("NOT_A_DATA_STORE: " + type);
+    }
+    Constructor<?> constructor = c.getConstructor(String.class);
+    return (DataStore) constructor.newInstance(basePath);
+  }
+
+}
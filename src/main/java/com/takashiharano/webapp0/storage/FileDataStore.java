@@ -0,0 +1,116 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.libutil.FileUtil;
+
+/**
+ * The DataStore that keeps each entry in a file under the workspace.<br>
+ * The key is the relative path of the file, so the layout is the same as the
+ * one the application has always used.
+ */
+public class FileDataStore implements DataStore {
+
+  private String basePath;
+
+  public FileDataStore(String basePath) {
+    this.basePath = basePath;
+  }
+
+  @Override
+  public String read(String key) {
+    String path = getPath(key);
+    if (!FileUtil.exists(path)) {
+      return null;
+    }
+    return FileUtil.readText(path);
+  }
+
+  @Override
+  public String[] readLines(String key) {
+    String path = getPath(key);
+    return FileUtil.readTextAsArray(path);
+  }
+
+  @Override
+  public void write(String key, String text) throws IOException {
+    String path = getPath(key);
+    FileUtil.write(path, text);
+  }
+
+  @Override
+  public void append(String key, String text) throws IOException {
+    Path path = Paths.get(getPath(key));
+    Path dir = path.getParent();
+    if ((dir != null) && !Files.exists(dir)) {
+      Files.createDirectories(dir);
+    }
+    byte[] b = text.getBytes(StandardCharsets.UTF_8);
+    Files.write(path, b, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    Files.deleteIfExists(Paths.get(getPath(key)));
+  }
+
+  @Override
+  public void deleteAll(String prefix) throws IOException {
+    String path = getPath(prefix);
+    if (FileUtil.exists(path)) {
+      FileUtil.delete(path, true);
+    }
+  }
+
+  @Override
+  public List<String> list(String prefix) {
+    List<String> keys = new ArrayList<>();
+    collectKeys(new File(basePath), "", prefix, keys);
+    return keys;
+  }
+
+  private void collectKeys(File dir, String dirKey, String prefix, List<String> keys) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (int i = 0; i < files.length; i++) {
+      File file = files[i];
+      String key = dirKey + file.getName();
+      if (file.isDirectory()) {
+        String subDirKey = key + "/";
+        if (subDirKey.startsWith(prefix) || prefix.startsWith(subDirKey)) {
+          collectKeys(file, subDirKey, prefix, keys);
+        }
+      } else if (key.startsWith(prefix)) {
+        keys.add(key);
+      }
+    }
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  private String getPath(String key) {
+    return FileUtil.joinPath(basePath, key);
+  }
+
+}
@@ -0,0 +1,544 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.takashiharano.webapp0.util.Log;
+import com.takashiharano.webapp0.util.TaskThreads;
+
+/**
+ * The DataStore that keeps all entries in a single file.<br>
+ * The entries are held in memory. Every change is applied to memory at once
+ * and written to an append-only log by a background committer in batches.
+ * Each batch is written as one frame with a checksum and is synced to the
+ * disk, so a batch is either fully applied or not applied at all after a
+ * crash. A batch that could not be written is cut off from the file and put
+ * back to the head of the pending changes, so it is written by the next
+ * commit. The log is rewritten with the live entries when it has grown large
+ * enough.
+ *
+ * <pre>
+ * frame   : MAGIC(int) opCount(int) payloadLength(int) crc32(long) payload
+ * payload : { type(byte) keyLength(int) key valueLength(int) value }...
+ * </pre>
+ */
+public class KeyValueDataStore implements DataStore {
+
+  public static final String FILE_NAME = "appdata.kvs";
+  public static final int DEFAULT_COMMIT_INTERVAL_MILLIS = 100;
+
+  private static final int MAGIC = 0x57413046;
+  private static final int FRAME_HEADER_SIZE = 20;
+  private static final byte TYPE_PUT = 1;
+  private static final byte TYPE_APPEND = 2;
+  private static final byte TYPE_DELETE = 3;
+  private static final int MAX_BATCH_OPS = 10000;
+  private static final long COMPACTION_MIN_BYTES = 4 * 1024 * 1024;
+  private static final int COMPACTION_RATIO = 4;
+
+  private String filePath;
+  private int commitIntervalMillis;
+  private ConcurrentHashMap<String, String> data;
+  private List<Op> pending;
+  private Object commitLock;
+  private FileChannel channel;
+  private long logSize;
+  private long compactedSize;
+  private volatile boolean running;
+  private boolean commitFailing;
+  private Thread committer;
+  private AtomicLong commitCount;
+  private AtomicLong committedOpCount;
+  private AtomicLong compactionCount;
+
+  private static class Op {
+    byte type;
+    String key;
+    String value;
+
+    Op(byte type, String key, String value) {
+      this.type = type;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  public KeyValueDataStore(String basePath) throws IOException {
+    this(basePath, DEFAULT_COMMIT_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Opens the store.
+   *
+   * @param basePath
+   *          the directory of the store file
+   * @param commitIntervalMillis
+   *          the maximum time a change waits before it is written to the disk
+   * @throws IOException
+   *           if the store file cannot be opened
+   */
+  public KeyValueDataStore(String basePath, int commitIntervalMillis) throws IOException {
+    this.filePath = Paths.get(basePath, FILE_NAME).toString();
+    this.commitIntervalMillis = commitIntervalMillis;
+    this.data = new ConcurrentHashMap<>();
+    this.pending = new ArrayList<>();
+    this.commitLock = new Object();
+    this.commitCount = new AtomicLong();
+    this.committedOpCount = new AtomicLong();
+    this.compactionCount = new AtomicLong();
+
+    Path path = Paths.get(filePath);
+    Path dir = path.getParent();
+    if ((dir != null) && !Files.exists(dir)) {
+      Files.createDirectories(dir);
+    }
+    long validSize = load(path);
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    if (channel.size() > validSize) {
+      Log.w("KVS: discarded an incomplete batch at " + validSize + ": " + filePath);
+      channel.truncate(validSize);
+    }
+    channel.position(validSize);
+    logSize = validSize;
+    compactedSize = validSize;
+
+    running = true;
+    committer = TaskThreads.newThread("kvs-committer", this::runCommitter);
+    committer.start();
+  }
+
+  @Override
+  public String read(String key) {
+    return data.get(key);
+  }
+
+  @Override
+  public String[] readLines(String key) {
+    String text = data.get(key);
+    if (text == null) {
+      return null;
+    }
+    if (text.endsWith("\n")) {
+      text = text.substring(0, text.length() - 1);
+    }
+    String[] lines = text.split("\n", -1);
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i];
+      if (line.endsWith("\r")) {
+        lines[i] = line.substring(0, line.length() - 1);
+      }
+    }
+    return lines;
+  }
+
+  @Override
+  public void write(String key, String text) throws IOException {
+    synchronized (this) {
+      data.put(key, text);
+      addPending(new Op(TYPE_PUT, key, text));
+    }
+  }
+
+  @Override
+  public void append(String key, String text) throws IOException {
+    synchronized (this) {
+      data.merge(key, text, String::concat);
+      addPending(new Op(TYPE_APPEND, key, text));
+    }
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    synchronized (this) {
+      if (data.remove(key) == null) {
+        return;
+      }
+      addPending(new Op(TYPE_DELETE, key, null));
+    }
+  }
+
+  @Override
+  public void deleteAll(String prefix) throws IOException {
+    List<String> keys = list(prefix);
+    for (int i = 0; i < keys.size(); i++) {
+      delete(keys.get(i));
+    }
+  }
+
+  @Override
+  public List<String> list(String prefix) {
+    List<String> keys = new ArrayList<>();
+    for (String key : data.keySet()) {
+      if (key.startsWith(prefix)) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    commit();
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    synchronized (this) {
+      notifyAll();
+    }
+    try {
+      committer.join(commitIntervalMillis * 10L + 1000L);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      commit();
+    } finally {
+      synchronized (commitLock) {
+        try {
+          channel.close();
+        } catch (IOException ioe) {
+          Log.e("KVS: close error: " + ioe);
+        }
+      }
+      Log.i("KVS: closed: commits=" + getCommitCount() + " ops=" + getCommittedOpCount() + " compactions=" + getCompactionCount() + " pending=" + getPendingCount());
+    }
+  }
+
+  private void addPending(Op op) {
+    pending.add(op);
+    if (pending.size() >= MAX_BATCH_OPS) {
+      notifyAll();
+    }
+  }
+
+  private void runCommitter() {
+    while (running) {
+      synchronized (this) {
+        if (pending.size() < MAX_BATCH_OPS) {
+          try {
+            wait(commitIntervalMillis);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+      try {
+        commit();
+        if (commitFailing) {
+          commitFailing = false;
+          Log.i("KVS: commit recovered");
+        }
+      } catch (Exception e) {
+        // The batch is retried on the next round. Logged once while failing.
+        if (!commitFailing) {
+          commitFailing = true;
+          Log.e("KVS: commit error: " + e);
+        }
+      }
+    }
+  }
+
+  private synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Puts the ops that could not be written back to the head of the pending
+   * changes.
+   */
+  private synchronized void restorePending(List<Op> ops) {
+    ops.addAll(pending);
+    pending = ops;
+  }
+
+  /**
+   * Writes the pending changes as one batch.<br>
+   * If the batch cannot be written, the file is truncated to the end of the
+   * last good batch and the changes are kept pending.
+   *
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  public void commit() throws IOException {
+    synchronized (commitLock) {
+      List<Op> batch;
+      synchronized (this) {
+        if (pending.isEmpty()) {
+          return;
+        }
+        batch = pending;
+        pending = new ArrayList<>();
+      }
+      long prevLogSize = logSize;
+      try {
+        ByteBuffer frame = buildFrame(batch);
+        while (frame.hasRemaining()) {
+          logSize += channel.write(frame);
+        }
+        channel.force(false);
+      } catch (IOException e) {
+        // Cut off the torn frame so that the later batches are not lost on the
+        // next load.
+        logSize = prevLogSize;
+        try {
+          channel.truncate(prevLogSize);
+          channel.position(prevLogSize);
+        } catch (IOException e1) {
+          Log.e("KVS: truncate error: " + e1);
+        }
+        restorePending(batch);
+        throw e;
+      }
+      commitCount.incrementAndGet();
+      committedOpCount.addAndGet(batch.size());
+
+      if ((logSize > COMPACTION_MIN_BYTES) && (logSize > compactedSize * COMPACTION_RATIO)) {
+        try {
+          compact();
+        } catch (IOException e) {
+          // The batch has been written. The compaction is tried again later.
+          Log.e("KVS: compaction error: " + e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Rewrites the store file with the live entries only.
+   *
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  public void compact() throws IOException {
+    synchronized (commitLock) {
+      List<Op> covered;
+      Map<String, String> snapshot;
+      synchronized (this) {
+        // The pending changes are already in the snapshot.
+        covered = pending;
+        pending = new ArrayList<>();
+        snapshot = new HashMap<>(data);
+      }
+
+      Path path = Paths.get(filePath);
+      Path tmpPath = Paths.get(filePath + ".tmp");
+      try {
+        try (FileChannel tmp = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+          List<Op> batch = new ArrayList<>();
+          for (Entry<String, String> entry : snapshot.entrySet()) {
+            batch.add(new Op(TYPE_PUT, entry.getKey(), entry.getValue()));
+            if (batch.size() >= MAX_BATCH_OPS) {
+              writeFully(tmp, buildFrame(batch));
+              batch = new ArrayList<>();
+            }
+          }
+          if (!batch.isEmpty()) {
+            writeFully(tmp, buildFrame(batch));
+          }
+          tmp.force(true);
+        }
+        channel.close();
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        // The old file is still in place and the covered changes are not in it.
+        restorePending(covered);
+        if (!channel.isOpen()) {
+          openChannel(path);
+        }
+        throw e;
+      }
+      openChannel(path);
+      compactedSize = logSize;
+      compactionCount.incrementAndGet();
+    }
+  }
+
+  private void openChannel(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.WRITE);
+    logSize = channel.size();
+    channel.position(logSize);
+  }
+
+  private void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      ch.write(buf);
+    }
+  }
+
+  private ByteBuffer buildFrame(List<Op> batch) throws IOException {
+    ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(payloadBytes);
+    for (int i = 0; i < batch.size(); i++) {
+      Op op = batch.get(i);
+      out.writeByte(op.type);
+      writeBytes(out, op.key);
+      writeBytes(out, op.value);
+    }
+    out.flush();
+    byte[] payload = payloadBytes.toByteArray();
+
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+
+    ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+    frame.putInt(MAGIC);
+    frame.putInt(batch.size());
+    frame.putInt(payload.length);
+    frame.putLong(crc.getValue());
+    frame.put(payload);
+    frame.flip();
+    return frame;
+  }
+
+  private void writeBytes(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  /**
+   * Replays the store file.
+   *
+   * @return the size of the valid part of the file
+   */
+  private long load(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return 0L;
+    }
+    long validSize = 0L;
+    try (InputStream is = new BufferedInputStream(new FileInputStream(path.toFile()))) {
+      DataInputStream in = new DataInputStream(is);
+      while (true) {
+        List<Op> batch;
+        int payloadLength;
+        try {
+          int magic = in.readInt();
+          if (magic != MAGIC) {
+            break;
+          }
+          int opCount = in.readInt();
+          payloadLength = in.readInt();
+          long crcValue = in.readLong();
+          if (payloadLength < 0) {
+            break;
+          }
+          byte[] payload = new byte[payloadLength];
+          in.readFully(payload);
+          CRC32 crc = new CRC32();
+          crc.update(payload, 0, payload.length);
+          if (crc.getValue() != crcValue) {
+            break;
+          }
+          batch = parsePayload(payload, opCount);
+        } catch (EOFException e) {
+          break;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+          apply(batch.get(i));
+        }
+        validSize += FRAME_HEADER_SIZE + payloadLength;
+      }
+    }
+    return validSize;
+  }
+
+  private List<Op> parsePayload(byte[] payload, int opCount) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    List<Op> batch = new ArrayList<>(opCount);
+    for (int i = 0; i < opCount; i++) {
+      byte type = in.readByte();
+      String key = readBytes(in);
+      String value = readBytes(in);
+      batch.add(new Op(type, key, value));
+    }
+    return batch;
+  }
+
+  private String readBytes(DataInputStream in) throws IOException {
+    int len = in.readInt();
+    if (len < 0) {
+      return null;
+    }
+    byte[] b = new byte[len];
+    in.readFully(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  private void apply(Op op) {
+    switch (op.type) {
+      case TYPE_PUT:
+        data.put(op.key, op.value);
+        break;
+      case TYPE_APPEND:
+        data.merge(op.key, op.value, String::concat);
+        break;
+      case TYPE_DELETE:
+        data.remove(op.key);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Returns the number of the batches written.
+   *
+   * @return the count
+   */
+  public long getCommitCount() {
+    return commitCount.get();
+  }
+
+  /**
+   * Returns the number of the changes written.
+   *
+   * @return the count
+   */
+  public long getCommittedOpCount() {
+    return committedOpCount.get();
+  }
+
+  /**
+   * Returns the number of the compactions.
+   *
+   * @return the count
+   */
+  public long getCompactionCount() {
+    return compactionCount.get();
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies the application data from a store to another.<br>
+ * Run it while the application is stopped:
+ *
+ * <pre>
+ * java com.takashiharano.webapp0.storage.StorageMigrator WORKSPACE_PATH file kv
+ * </pre>
+ */
+public class StorageMigrator {
+
+  /** The entries of the application data */
+  public static final String[] DATA_KEYS = { "users.txt", "users.journal", "groups.txt", "groups.journal" };
+
+  /** The key prefixes of the application data */
+  public static final String[] DATA_PREFIXES = { "users/" };
+
+  /**
+   * Copies the entries of the application data.
+   *
+   * @param from
+   *          the source store
+   * @param to
+   *          the destination store
+   * @return the number of the entries copied
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  public static int migrate(DataStore from, DataStore to) throws IOException {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < DATA_KEYS.length; i++) {
+      keys.add(DATA_KEYS[i]);
+    }
+    for (int i = 0; i < DATA_PREFIXES.length; i++) {
+      keys.addAll(from.list(DATA_PREFIXES[i]));
+    }
+
+    int count = 0;
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i);
+      String text = from.read(key);
+      if (text == null) {
+        continue;
+      }
+      to.write(key, text);
+      count++;
+    }
+    to.flush();
+    return count;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.out.println("Usage: StorageMigrator WORKSPACE_PATH FROM_TYPE TO_TYPE");
+      return;
+    }
+    String basePath = args[0];
+    DataStore from = DataStores.create(args[1], basePath);
+    DataStore to = DataStores.create(args[2], basePath);
+    try {
+      int count = migrate(from, to);
+      System.out.println(count + " entries copied");
+    } finally {
+      from.close();
+      to.close();
+    }
+  }
+
+}
@@ -0,0 +1,25 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.task;
+
+import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.async.AsyncTaskManager;
+
+/**
+ * Removes the expired async tasks and their results in the background.
+ */
+public class AsyncTaskReaper extends IntervalTask {
+
+  @Override
+  public void exec() {
+    AppManager appManager = AppManager.getInstance();
+    AsyncTaskManager asyncTaskManager = appManager.getAsyncTaskManager();
+    if (asyncTaskManager != null) {
+      asyncTaskManager.reap();
+    }
+  }
+
+}
@@ -7,6 +7,14 @@ package com.takashiharano.webapp0.task;
 
 public abstract class IntervalTask {
 
-  public abstract void exec();
+  /**
+   * Runs the task.<br>
+   * An exception is counted as a failure, and the run is retried as set in
+   * the TaskSchedule.
+   *
+   * @throws Exception
+   *           if the run failed
+   */
+  public abstract void exec() throws Exception;
 
 }
@@ -5,21 +5,53 @@
  */
 package com.takashiharano.webapp0.task;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.takashiharano.webapp0.util.Histogram;
 import com.takashiharano.webapp0.util.Log;
+import com.takashiharano.webapp0.util.TaskThreads;
 
+/**
+ * Runs the interval tasks on a shared scheduler.<br>
+ * The tasks share a small pool of threads instead of having a thread each.
+ * Each run is scheduled when the previous one has ended, so the runs of a
+ * task never overlap. The run duration and the lateness (actual start -
+ * scheduled start) of each task are recorded in milliseconds.
+ */
 public class IntervalTaskManager {
+  public static final int DEFAULT_POOL_SIZE = 2;
+  private static final long STOP_TIMEOUT_MILLIS = 30000;
+
   private Map<String, TaskContext> taskMap;
+  private ScheduledThreadPoolExecutor scheduler;
 
   public IntervalTaskManager() {
+    this(DEFAULT_POOL_SIZE);
+  }
+
+  /**
+   * Creates the manager.
+   *
+   * @param poolSize
+   *          the number of the threads that run the tasks
+   */
+  public IntervalTaskManager(int poolSize) {
     taskMap = new ConcurrentHashMap<>();
+    scheduler = new ScheduledThreadPoolExecutor(poolSize, TaskThreads.newThreadFactory("interval-task"));
+    scheduler.setRemoveOnCancelPolicy(true);
   }
 
   /**
-   * Start the interval task.
+   * Start the interval task at a fixed rate.
    *
    * @param taskName
    *          task name
@@ -29,8 +61,27 @@ public class IntervalTaskManager {
    *          interval in seconds
    */
   public void startTask(String taskName, IntervalTask task, int interval) {
-    Log.i("Starting task: " + taskName + " (" + interval + "s)");
-    TaskContext context = new TaskContext(task, interval);
+    startTask(taskName, task, new TaskSchedule(interval));
+  }
+
+  /**
+   * Start the interval task.
+   *
+   * @param taskName
+   *          task name
+   * @param task
+   *          interval task
+   * @param schedule
+   *          the schedule. the task is not started if the interval is not
+   *          positive.
+   */
+  public void startTask(String taskName, IntervalTask task, TaskSchedule schedule) {
+    if (schedule.getIntervalMillis() <= 0) {
+      Log.e("Invalid task interval: " + taskName + " (" + schedule + ")");
+      return;
+    }
+    Log.i("Starting task: " + taskName + " (" + schedule + ")");
+    TaskContext context = new TaskContext(taskName, task, schedule);
     TaskContext prevTask = taskMap.put(taskName, context);
     if (prevTask != null) {
       prevTask.stop();
@@ -39,15 +90,21 @@ public class IntervalTaskManager {
   }
 
   /**
-   * Stop the task.
+   * Stop the task.<br>
+   * If the task is running, this waits for the run to end.
    *
    * @param taskName
    *          task name
+   * @return false if the task is not found
    */
-  public void stopTask(String taskName) {
-    TaskContext context = taskMap.get(taskName);
+  public boolean stopTask(String taskName) {
+    TaskContext context = taskMap.remove(taskName);
+    if (context == null) {
+      return false;
+    }
     context.stop();
-    Log.i("The task has been stopped: " + taskName);
+    Log.i("The task has been stopped: " + taskName + " runs=" + context.getRunCount() + " errors=" + context.getErrorCount() + " skipped=" + context.getSkippedCount() + " p99=" + context.getDurationHistogram().getPercentile(99) + "ms");
+    return true;
   }
 
   /**
@@ -56,22 +113,42 @@ public class IntervalTaskManager {
   public void stopAllTasks() {
     if (taskMap.size() > 0) {
       Log.i("Stopping all tasks...");
-      for (Entry<String, TaskContext> entry : taskMap.entrySet()) {
-        String id = entry.getKey();
-        stopTask(id);
+      List<String> names = getTaskNames();
+      for (int i = 0; i < names.size(); i++) {
+        stopTask(names.get(i));
       }
     }
   }
 
+  /**
+   * Stops all tasks and the scheduler threads.
+   */
+  public void shutdown() {
+    stopAllTasks();
+    scheduler.shutdown();
+  }
+
+  /**
+   * Returns the names of the running tasks.
+   *
+   * @return the task names
+   */
+  public List<String> getTaskNames() {
+    return new ArrayList<>(taskMap.keySet());
+  }
+
   /**
    * Returns interval value.
    *
    * @param taskName
    *          task name
-   * @return interval in seconds
+   * @return interval in seconds. -1 if the task is not found.
    */
   public int getIntervalSec(String taskName) {
     TaskContext context = taskMap.get(taskName);
+    if (context == null) {
+      return -1;
+    }
     return context.getIntervalSec();
   }
 
@@ -80,12 +157,14 @@ public class IntervalTaskManager {
    *
    * @param taskName
    *          task name
-   * @return last executed time-stamp in milliseconds
+   * @return last executed time-stamp in milliseconds. 0 if not found.
    */
   public long getLastExecutedTime(String taskName) {
     TaskContext context = taskMap.get(taskName);
-    long lastTime = context.getLastExecutedTime();
-    return lastTime;
+    if (context == null) {
+      return 0;
+    }
+    return context.getLastExecutedTime();
   }
 
   /**
@@ -93,16 +172,18 @@ public class IntervalTaskManager {
    *
    * @param taskName
    *          task name
-   * @return next execution time-stamp in milliseconds.
+   * @return next execution time-stamp in milliseconds. 0 if not found.
    */
   public long getNextExecutionTime(String taskName) {
     TaskContext context = taskMap.get(taskName);
-    long nextTime = context.getNextExecutionTime();
-    return nextTime;
+    if (context == null) {
+      return 0;
+    }
+    return context.getNextExecutionTime();
   }
 
   /**
-   * Returns if the task has error.
+   * Returns if the last run of the task failed.
    *
    * @param taskName
    *          task name
@@ -110,51 +191,205 @@ public class IntervalTaskManager {
    */
   public boolean hasError(String taskName) {
     TaskContext context = taskMap.get(taskName);
+    if (context == null) {
+      return false;
+    }
     return context.hasError();
   }
 
   /**
-   * Returns the exception.
+   * Returns the exception of the last failed run.
    *
    * @param taskName
    *          task name
-   * @return exception
+   * @return exception. null if the task has never failed or is not found.
    */
   public Throwable getException(String taskName) {
     TaskContext context = taskMap.get(taskName);
+    if (context == null) {
+      return null;
+    }
     return context.getException();
   }
 
-  private static class TaskContext implements Runnable {
+  /**
+   * Returns the histogram of the run durations in milliseconds.
+   *
+   * @param taskName
+   *          task name
+   * @return the histogram. null if the task is not found.
+   */
+  public Histogram getDurationHistogram(String taskName) {
+    TaskContext context = taskMap.get(taskName);
+    if (context == null) {
+      return null;
+    }
+    return context.getDurationHistogram();
+  }
+
+  /**
+   * Returns the histogram of the start delays from the schedule in
+   * milliseconds.
+   *
+   * @param taskName
+   *          task name
+   * @return the histogram. null if the task is not found.
+   */
+  public Histogram getLatenessHistogram(String taskName) {
+    TaskContext context = taskMap.get(taskName);
+    if (context == null) {
+      return null;
+    }
+    return context.getLatenessHistogram();
+  }
+
+  private class TaskContext implements Runnable {
+    private String name;
     private IntervalTask task;
-    private Thread thread;
-    private int intervalSec;
-    private long lastExecutedTime;
-    private Throwable throwable;
+    private TaskSchedule schedule;
+    private volatile ScheduledFuture<?> future;
+    private boolean stopped;
+    private Thread runner;
+    private long baseTime;
+    private int retryCount;
+    private volatile long lastExecutedTime;
+    private volatile long nextExecutionTime;
+    private volatile int consecutiveFailures;
+    private volatile Throwable throwable;
+    private AtomicLong runCount;
+    private AtomicLong errorCount;
+    private AtomicLong skippedCount;
+    private Histogram durationHistogram;
+    private Histogram latenessHistogram;
 
-    public TaskContext(IntervalTask task, int interval) {
+    public TaskContext(String name, IntervalTask task, TaskSchedule schedule) {
+      this.name = name;
       this.task = task;
-      this.thread = new Thread(this);
-      this.intervalSec = interval;
+      this.schedule = schedule;
+      this.runCount = new AtomicLong();
+      this.errorCount = new AtomicLong();
+      this.skippedCount = new AtomicLong();
+      this.durationHistogram = new Histogram();
+      this.latenessHistogram = new Histogram();
     }
 
     /**
-     * Starts the task in a sub thread.
+     * Schedules the first run.
      */
     public void start() {
-      thread.start();
+      baseTime = System.currentTimeMillis() + schedule.getInitialDelayMillis();
+      scheduleAt(baseTime + getJitter());
     }
 
     /**
-     * Stops the task.
+     * Cancels the next run and waits for the current run to end.
      */
     public void stop() {
-      thread.interrupt();
+      synchronized (this) {
+        stopped = true;
+      }
+      ScheduledFuture<?> f = future;
+      if (f != null) {
+        f.cancel(false);
+      }
+      synchronized (this) {
+        long limit = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+        while ((runner != null) && (runner != Thread.currentThread())) {
+          long wait = limit - System.currentTimeMillis();
+          if (wait <= 0) {
+            Log.w("The task did not stop in time: " + name);
+            break;
+          }
+          try {
+            wait(wait);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (stopped) {
+          return;
+        }
+        runner = Thread.currentThread();
+      }
+
+      long startTime = System.currentTimeMillis();
+      latenessHistogram.record(startTime - nextExecutionTime);
+      lastExecutedTime = startTime;
+      boolean succeeded = true;
+      try {
+        task.exec();
+        consecutiveFailures = 0;
+      } catch (Throwable t) {
+        succeeded = false;
+        throwable = t;
+        consecutiveFailures++;
+        errorCount.incrementAndGet();
+        Log.e("Interval task error: " + name, t);
+      }
+      long endTime = System.currentTimeMillis();
+      durationHistogram.record(endTime - startTime);
+      runCount.incrementAndGet();
+
+      synchronized (this) {
+        runner = null;
+        notifyAll();
+        if (stopped) {
+          return;
+        }
+      }
+      scheduleNext(succeeded, endTime);
+    }
+
+    private void scheduleNext(boolean succeeded, long endTime) {
+      long intervalMillis = schedule.getIntervalMillis();
+      if (!succeeded && (retryCount < schedule.getMaxRetries())) {
+        long backoff = schedule.getRetryBackoffMillis() << Math.min(retryCount, 30);
+        retryCount++;
+        scheduleAt(endTime + Math.min(backoff, intervalMillis));
+        return;
+      }
+      retryCount = 0;
+
+      if (schedule.getMode() == TaskSchedule.Mode.FIXED_DELAY) {
+        baseTime = endTime + intervalMillis;
+      } else {
+        baseTime += intervalMillis;
+        if (baseTime < endTime) {
+          long missed = (endTime - baseTime) / intervalMillis + 1;
+          baseTime += missed * intervalMillis;
+          skippedCount.addAndGet(missed);
+        }
+      }
+      scheduleAt(baseTime + getJitter());
+    }
+
+    private void scheduleAt(long time) {
+      nextExecutionTime = time;
+      long delay = Math.max(0, time - System.currentTimeMillis());
       try {
-        thread.join();
-      } catch (InterruptedException e) {
-        Log.e(e);
+        future = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // the scheduler has been shut down
+      }
+    }
+
+    private long getJitter() {
+      double ratio = schedule.getJitterRatio();
+      if (ratio <= 0) {
+        return 0;
+      }
+      long max = (long) (schedule.getIntervalMillis() * ratio);
+      if (max <= 0) {
+        return 0;
       }
+      return ThreadLocalRandom.current().nextLong(max);
     }
 
     /**
@@ -163,7 +398,7 @@ public class IntervalTaskManager {
      * @return the interval value
      */
     public int getIntervalSec() {
-      return intervalSec;
+      return (int) (schedule.getIntervalMillis() / 1000);
     }
 
     /**
@@ -181,20 +416,20 @@ public class IntervalTaskManager {
      * @return the next execution time
      */
     public long getNextExecutionTime() {
-      return lastExecutedTime + intervalSec * 1000;
+      return nextExecutionTime;
     }
 
     /**
-     * Returns whether an error occurred.
+     * Returns whether the last run failed.
      *
-     * @return if any error occurred
+     * @return if the last run failed
      */
     public boolean hasError() {
-      return (throwable != null);
+      return (consecutiveFailures > 0);
     }
 
     /**
-     * Returns the exception during the execution.
+     * Returns the exception of the last failed run.
      *
      * @return the exception. if any error has not occurred, returns null.
      */
@@ -202,30 +437,24 @@ public class IntervalTaskManager {
       return throwable;
     }
 
-    @Override
-    public void run() {
-      execTask();
+    public long getRunCount() {
+      return runCount.get();
     }
 
-    private void execTask() {
-      long intervalMillis = intervalSec * 1000;
-      while (true) {
-        if (Thread.interrupted()) {
-          break;
-        }
-        lastExecutedTime = System.currentTimeMillis();
-        try {
-          task.exec();
-        } catch (Throwable t) {
-          throwable = t;
-          break;
-        }
-        try {
-          Thread.sleep(intervalMillis);
-        } catch (InterruptedException e) {
-          break;
-        }
-      }
+    public long getErrorCount() {
+      return errorCount.get();
+    }
+
+    public long getSkippedCount() {
+      return skippedCount.get();
+    }
+
+    public Histogram getDurationHistogram() {
+      return durationHistogram;
+    }
+
+    public Histogram getLatenessHistogram() {
+      return latenessHistogram;
     }
   }
 
@@ -0,0 +1,27 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.task;
+
+import java.io.IOException;
+
+import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.session.SessionManager;
+
+/**
+ * Writes the modified session info into the files in the background.
+ */
+public class SessionInfoFlusher extends IntervalTask {
+
+  @Override
+  public void exec() throws IOException {
+    SessionManager sessionManager = AppManager.getInstance().getSessionManager();
+    if (sessionManager == null) {
+      return;
+    }
+    sessionManager.flushDirtySessionInfo();
+  }
+
+}
@@ -0,0 +1,25 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.task;
+
+import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.session.SessionManager;
+
+/**
+ * Removes the expired sessions in the background.
+ */
+public class SessionSweeper extends IntervalTask {
+
+  @Override
+  public void exec() {
+    SessionManager sessionManager = AppManager.getInstance().getSessionManager();
+    if (sessionManager == null) {
+      return;
+    }
+    sessionManager.cleanInvalidatedSessionInfo(true);
+  }
+
+}
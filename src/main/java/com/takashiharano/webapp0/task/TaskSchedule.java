@@ -0,0 +1,131 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.task;
+
+/**
+ * The schedule of an interval task.<br>
+ * <ul>
+ * <li>FIXED_RATE: runs at start + n * interval. A late run does not shift the
+ * following ones. Runs that were missed entirely are skipped.</li>
+ * <li>FIXED_DELAY: runs the interval after the previous run has ended.</li>
+ * </ul>
+ * A run never overlaps the previous run of the same task. The jitter adds a
+ * random delay of 0 to (interval * jitterRatio) to each run so that the tasks
+ * with the same interval do not run at the same moment. When a run fails, it
+ * is retried after retryBackoffMillis, doubled on each failure, up to
+ * maxRetries times; then the task goes back to the normal schedule.
+ */
+public class TaskSchedule {
+
+  public enum Mode {
+    FIXED_RATE, FIXED_DELAY
+  }
+
+  private Mode mode;
+  private long intervalMillis;
+  private long initialDelayMillis;
+  private double jitterRatio;
+  private int maxRetries;
+  private long retryBackoffMillis;
+
+  /**
+   * Creates a fixed-rate schedule without jitter or retry.
+   *
+   * @param intervalSec
+   *          the interval in seconds
+   */
+  public TaskSchedule(int intervalSec) {
+    this(Mode.FIXED_RATE, intervalSec);
+  }
+
+  /**
+   * Creates a schedule without jitter or retry.
+   *
+   * @param mode
+   *          FIXED_RATE or FIXED_DELAY
+   * @param intervalSec
+   *          the interval in seconds
+   */
+  public TaskSchedule(Mode mode, int intervalSec) {
+    this.mode = mode;
+    this.intervalMillis = intervalSec * 1000L;
+    this.initialDelayMillis = 0;
+    this.jitterRatio = 0;
+    this.maxRetries = 0;
+    this.retryBackoffMillis = 1000;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public long getIntervalMillis() {
+    return intervalMillis;
+  }
+
+  public long getInitialDelayMillis() {
+    return initialDelayMillis;
+  }
+
+  public void setInitialDelayMillis(long initialDelayMillis) {
+    this.initialDelayMillis = initialDelayMillis;
+  }
+
+  public double getJitterRatio() {
+    return jitterRatio;
+  }
+
+  /**
+   * Sets the jitter.
+   *
+   * @param jitterRatio
+   *          0 to 1. the max random delay in proportion to the interval.
+   */
+  public void setJitterRatio(double jitterRatio) {
+    this.jitterRatio = jitterRatio;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public long getRetryBackoffMillis() {
+    return retryBackoffMillis;
+  }
+
+  /**
+   * Sets the retry on failure.
+   *
+   * @param maxRetries
+   *          the max number of the retries after a failure. 0 to disable.
+   * @param retryBackoffMillis
+   *          the delay before the first retry. doubled on each retry and
+   *          capped at the interval.
+   */
+  public void setRetry(int maxRetries, long retryBackoffMillis) {
+    this.maxRetries = maxRetries;
+    this.retryBackoffMillis = retryBackoffMillis;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(mode);
+    sb.append(" ");
+    sb.append(intervalMillis / 1000);
+    sb.append("s");
+    if (jitterRatio > 0) {
+      sb.append(" jitter=");
+      sb.append(jitterRatio);
+    }
+    if (maxRetries > 0) {
+      sb.append(" retry=");
+      sb.append(maxRetries);
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,20 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.task;
+
+import com.takashiharano.webapp0.telemetry.TelemetryManager;
+
+/**
+ * Samples the JVM metrics into the in-memory rings.
+ */
+public class TelemetrySampler extends IntervalTask {
+
+  @Override
+  public void exec() {
+    TelemetryManager.getInstance().sample();
+  }
+
+}
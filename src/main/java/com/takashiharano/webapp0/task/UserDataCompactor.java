@@ -0,0 +1,49 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.task;
+
+import java.io.IOException;
+
+import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.user.GroupManager;
+import com.takashiharano.webapp0.user.UserManager;
+import com.takashiharano.webapp0.util.Log;
+
+/**
+ * Writes the user and group change journals back to users.txt and groups.txt
+ * in the background.
+ */
+public class UserDataCompactor extends IntervalTask {
+
+  @Override
+  public void exec() throws IOException {
+    AppManager appManager = AppManager.getInstance();
+    IOException error = null;
+    UserManager userManager = appManager.getUserManager();
+    if (userManager != null) {
+      try {
+        userManager.compactJournal();
+      } catch (IOException ioe) {
+        Log.e("User journal compaction error: " + ioe);
+        error = ioe;
+      }
+    }
+    GroupManager groupManager = appManager.getGroupManager();
+    if (groupManager != null) {
+      try {
+        groupManager.compactJournal();
+      } catch (IOException ioe) {
+        Log.e("Group journal compaction error: " + ioe);
+        error = ioe;
+      }
+    }
+    // thrown after both so that the run is retried
+    if (error != null) {
+      throw error;
+    }
+  }
+
+}
@@ -0,0 +1,28 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.task;
+
+import java.io.IOException;
+
+import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.user.UserManager;
+
+/**
+ * Writes the last access time of the users into the status files in the
+ * background.
+ */
+public class UserStatusFlusher extends IntervalTask {
+
+  @Override
+  public void exec() throws IOException {
+    UserManager userManager = AppManager.getInstance().getUserManager();
+    if (userManager == null) {
+      return;
+    }
+    userManager.flushDirtyUserStatus();
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.telemetry;
+
+/**
+ * A snapshot of the JVM metrics.<br>
+ * The counters (GC count/time, loaded classes and allocated bytes) are
+ * cumulative, so the rate between any two samples is the difference divided
+ * by the time. A value that the JVM does not provide is -1.
+ */
+public class JvmSample {
+  long time;
+  long heapUsed;
+  long heapCommitted;
+  long heapMax;
+  long nonHeapUsed;
+  long nonHeapCommitted;
+  long[] poolUsed;
+  long[] gcCount;
+  long[] gcTime;
+  int threadCount;
+  int daemonThreadCount;
+  int peakThreadCount;
+  double processCpuLoad;
+  double systemCpuLoad;
+  double loadAverage;
+  int loadedClassCount;
+  long totalLoadedClassCount;
+  long unloadedClassCount;
+  long allocatedBytes;
+
+  public long getTime() {
+    return time;
+  }
+
+  public long getHeapUsed() {
+    return heapUsed;
+  }
+
+  public long getHeapCommitted() {
+    return heapCommitted;
+  }
+
+  public long getHeapMax() {
+    return heapMax;
+  }
+
+  public long getNonHeapUsed() {
+    return nonHeapUsed;
+  }
+
+  public long getNonHeapCommitted() {
+    return nonHeapCommitted;
+  }
+
+  /**
+   * Returns the used bytes of the memory pool.
+   *
+   * @param index
+   *          the index in JvmSampler#getPoolNames()
+   * @return the used bytes
+   */
+  public long getPoolUsed(int index) {
+    return poolUsed[index];
+  }
+
+  /**
+   * Returns the number of the collections of the collector.
+   *
+   * @param index
+   *          the index in JvmSampler#getCollectorNames()
+   * @return the collection count
+   */
+  public long getGcCount(int index) {
+    return gcCount[index];
+  }
+
+  /**
+   * Returns the accumulated collection time of the collector.
+   *
+   * @param index
+   *          the index in JvmSampler#getCollectorNames()
+   * @return the collection time in milliseconds
+   */
+  public long getGcTime(int index) {
+    return gcTime[index];
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  public int getDaemonThreadCount() {
+    return daemonThreadCount;
+  }
+
+  public int getPeakThreadCount() {
+    return peakThreadCount;
+  }
+
+  /**
+   * Returns the recent CPU usage of the JVM process.
+   *
+   * @return 0.0 to 1.0. -1 if not available.
+   */
+  public double getProcessCpuLoad() {
+    return processCpuLoad;
+  }
+
+  /**
+   * Returns the recent CPU usage of the whole system.
+   *
+   * @return 0.0 to 1.0. -1 if not available.
+   */
+  public double getSystemCpuLoad() {
+    return systemCpuLoad;
+  }
+
+  public double getLoadAverage() {
+    return loadAverage;
+  }
+
+  public int getLoadedClassCount() {
+    return loadedClassCount;
+  }
+
+  public long getTotalLoadedClassCount() {
+    return totalLoadedClassCount;
+  }
+
+  public long getUnloadedClassCount() {
+    return unloadedClassCount;
+  }
+
+  /**
+   * Returns the bytes allocated in the heap by the threads since the sampling
+   * started.
+   *
+   * @return the allocated bytes. -1 if not available.
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+}
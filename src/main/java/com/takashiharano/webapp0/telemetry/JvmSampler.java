@@ -0,0 +1,219 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.telemetry;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.takashiharano.webapp0.util.Log;
+
+/**
+ * Reads the JVM metrics from the platform MXBeans.<br>
+ * The CPU load and the allocated bytes come from the com.sun.management
+ * extensions of the beans. They are looked up by reflection and are -1 on a
+ * JVM that does not have them.<br>
+ * The allocated bytes are the sum of the per-thread counters of the live
+ * threads, so the allocation of a thread that starts and ends between two
+ * samples is not counted.
+ */
+public class JvmSampler {
+  private MemoryMXBean memoryBean;
+  private List<MemoryPoolMXBean> pools;
+  private List<GarbageCollectorMXBean> collectors;
+  private ThreadMXBean threadBean;
+  private ClassLoadingMXBean classLoadingBean;
+  private OperatingSystemMXBean osBean;
+  private Method processCpuLoadMethod;
+  private Method systemCpuLoadMethod;
+  private Method threadAllocatedBytesMethod;
+  private Map<Long, Long> threadAllocatedBytes;
+  private long allocatedBytes;
+
+  public JvmSampler() {
+    memoryBean = ManagementFactory.getMemoryMXBean();
+    pools = ManagementFactory.getMemoryPoolMXBeans();
+    collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    threadBean = ManagementFactory.getThreadMXBean();
+    classLoadingBean = ManagementFactory.getClassLoadingMXBean();
+    osBean = ManagementFactory.getOperatingSystemMXBean();
+
+    processCpuLoadMethod = getExtensionMethod(osBean, "com.sun.management.OperatingSystemMXBean", "getProcessCpuLoad");
+    systemCpuLoadMethod = getExtensionMethod(osBean, "com.sun.management.OperatingSystemMXBean", "getSystemCpuLoad");
+    threadAllocatedBytesMethod = getExtensionMethod(threadBean, "com.sun.management.ThreadMXBean", "getThreadAllocatedBytes", long[].class);
+    if ((threadAllocatedBytesMethod != null) && !isThreadAllocatedMemoryEnabled()) {
+      threadAllocatedBytesMethod = null;
+    }
+    threadAllocatedBytes = new HashMap<>();
+  }
+
+  /**
+   * Returns the names of the memory pools in the order of the values in a
+   * sample.
+   *
+   * @return the pool names
+   */
+  public List<String> getPoolNames() {
+    List<String> names = new ArrayList<>(pools.size());
+    for (int i = 0; i < pools.size(); i++) {
+      names.add(pools.get(i).getName());
+    }
+    return names;
+  }
+
+  /**
+   * Returns whether the memory pool is in the heap.
+   *
+   * @param index
+   *          the index in getPoolNames()
+   * @return true if the pool is a heap pool
+   */
+  public boolean isHeapPool(int index) {
+    return pools.get(index).getType() == MemoryType.HEAP;
+  }
+
+  /**
+   * Returns the names of the garbage collectors in the order of the values in
+   * a sample.
+   *
+   * @return the collector names
+   */
+  public List<String> getCollectorNames() {
+    List<String> names = new ArrayList<>(collectors.size());
+    for (int i = 0; i < collectors.size(); i++) {
+      names.add(collectors.get(i).getName());
+    }
+    return names;
+  }
+
+  /**
+   * Takes a sample.<br>
+   * This is called from a single thread.
+   *
+   * @return the sample
+   */
+  public JvmSample sample() {
+    JvmSample sample = new JvmSample();
+    sample.time = System.currentTimeMillis();
+
+    MemoryUsage heap = memoryBean.getHeapMemoryUsage();
+    sample.heapUsed = heap.getUsed();
+    sample.heapCommitted = heap.getCommitted();
+    sample.heapMax = heap.getMax();
+    MemoryUsage nonHeap = memoryBean.getNonHeapMemoryUsage();
+    sample.nonHeapUsed = nonHeap.getUsed();
+    sample.nonHeapCommitted = nonHeap.getCommitted();
+
+    sample.poolUsed = new long[pools.size()];
+    for (int i = 0; i < pools.size(); i++) {
+      MemoryUsage usage = pools.get(i).getUsage();
+      sample.poolUsed[i] = (usage == null) ? -1 : usage.getUsed();
+    }
+
+    sample.gcCount = new long[collectors.size()];
+    sample.gcTime = new long[collectors.size()];
+    for (int i = 0; i < collectors.size(); i++) {
+      GarbageCollectorMXBean collector = collectors.get(i);
+      sample.gcCount[i] = collector.getCollectionCount();
+      sample.gcTime[i] = collector.getCollectionTime();
+    }
+
+    sample.threadCount = threadBean.getThreadCount();
+    sample.daemonThreadCount = threadBean.getDaemonThreadCount();
+    sample.peakThreadCount = threadBean.getPeakThreadCount();
+
+    sample.processCpuLoad = invokeDouble(processCpuLoadMethod, osBean);
+    sample.systemCpuLoad = invokeDouble(systemCpuLoadMethod, osBean);
+    sample.loadAverage = osBean.getSystemLoadAverage();
+
+    sample.loadedClassCount = classLoadingBean.getLoadedClassCount();
+    sample.totalLoadedClassCount = classLoadingBean.getTotalLoadedClassCount();
+    sample.unloadedClassCount = classLoadingBean.getUnloadedClassCount();
+
+    sample.allocatedBytes = sampleAllocatedBytes();
+    return sample;
+  }
+
+  private long sampleAllocatedBytes() {
+    if (threadAllocatedBytesMethod == null) {
+      return -1;
+    }
+    long[] ids = threadBean.getAllThreadIds();
+    long[] bytes;
+    try {
+      bytes = (long[]) threadAllocatedBytesMethod.invoke(threadBean, (Object) ids);
+    } catch (Exception e) {
+      Log.w("ThreadAllocatedBytes is not available: " + e);
+      threadAllocatedBytesMethod = null;
+      return -1;
+    }
+
+    // Only the threads in the latest sample are kept, so the ended threads
+    // do not stay in the map.
+    Map<Long, Long> current = new HashMap<>(ids.length * 2);
+    for (int i = 0; i < ids.length; i++) {
+      long b = bytes[i];
+      if (b < 0) {
+        continue;
+      }
+      Long prev = threadAllocatedBytes.get(ids[i]);
+      allocatedBytes += (prev == null) ? b : Math.max(0, b - prev);
+      current.put(ids[i], b);
+    }
+    threadAllocatedBytes = current;
+    return allocatedBytes;
+  }
+
+  private boolean isThreadAllocatedMemoryEnabled() {
+    Method supported = getExtensionMethod(threadBean, "com.sun.management.ThreadMXBean", "isThreadAllocatedMemorySupported");
+    Method enabled = getExtensionMethod(threadBean, "com.sun.management.ThreadMXBean", "isThreadAllocatedMemoryEnabled");
+    try {
+      return ((Boolean) supported.invoke(threadBean)) && ((Boolean) enabled.invoke(threadBean));
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Looks up a method of the extended interface of the bean.<br>
+   * The method is taken from the public interface and not from the
+   * implementation class, which is not accessible on Java 9 or later.
+   */
+  private static Method getExtensionMethod(Object bean, String interfaceName, String methodName, Class<?>... parameterTypes) {
+    try {
+      Class<?> c = Class.forName(interfaceName);
+      if (!c.isInstance(bean)) {
+        return null;
+      }
+      return c.getMethod(methodName, parameterTypes);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static double invokeDouble(Method method, Object bean) {
+    if (method == null) {
+      return -1;
+    }
+    try {
+      return (Double) method.invoke(bean);
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+}
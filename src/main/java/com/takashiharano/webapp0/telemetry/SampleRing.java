@@ -0,0 +1,88 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.telemetry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed-size ring of the samples at a resolution.<br>
+ * When the ring is full, a new sample overwrites the oldest one.
+ */
+public class SampleRing {
+  private int resolutionSec;
+  private JvmSample[] samples;
+  private int head;
+  private int size;
+
+  /**
+   * Creates the ring.
+   *
+   * @param resolutionSec
+   *          the interval of the samples in seconds
+   * @param capacity
+   *          the number of the samples to keep
+   */
+  public SampleRing(int resolutionSec, int capacity) {
+    this.resolutionSec = resolutionSec;
+    this.samples = new JvmSample[capacity];
+  }
+
+  public int getResolutionSec() {
+    return resolutionSec;
+  }
+
+  public int getCapacity() {
+    return samples.length;
+  }
+
+  /**
+   * Returns the time span that the ring covers when it is full.
+   *
+   * @return the span in seconds
+   */
+  public long getSpanSec() {
+    return (long) resolutionSec * samples.length;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Adds a sample.
+   *
+   * @param sample
+   *          the sample
+   */
+  public synchronized void add(JvmSample sample) {
+    samples[head] = sample;
+    head = (head + 1) % samples.length;
+    if (size < samples.length) {
+      size++;
+    }
+  }
+
+  /**
+   * Returns the samples newer than the time in chronological order.
+   *
+   * @param since
+   *          the time in unix millis. 0 for all samples.
+   * @return the samples
+   */
+  public synchronized List<JvmSample> getSamples(long since) {
+    List<JvmSample> list = new ArrayList<>(size);
+    int start = (head - size + samples.length) % samples.length;
+    for (int i = 0; i < size; i++) {
+      JvmSample sample = samples[(start + i) % samples.length];
+      if (sample.time > since) {
+        list.add(sample);
+      }
+    }
+    return list;
+  }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.telemetry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.util.Log;
+
+/**
+ * Keeps the JVM samples in memory at several resolutions.<br>
+ * telemetry_rings is a comma-separated list of "resolution_sec:count". The
+ * default "10:360,60:1440" keeps 10-second samples for 1 hour and 1-minute
+ * samples for 1 day. The sampling interval is the finest resolution, and a
+ * coarser ring takes every n-th sample. The counters in a sample are
+ * cumulative, so the rates computed from a coarse ring are as exact as from
+ * the fine one.
+ */
+public class TelemetryManager {
+  public static final String DEFAULT_RINGS = "10:360,60:1440";
+
+  private static volatile TelemetryManager instance;
+
+  private JvmSampler sampler;
+  private SampleRing[] rings;
+  private int[] steps;
+  private long sampleCount;
+
+  public static TelemetryManager getInstance() {
+    if (instance == null) {
+      synchronized (TelemetryManager.class) {
+        if (instance == null) {
+          instance = new TelemetryManager();
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Creates the rings.<br>
+   * The rings are kept over a reset, so a change of telemetry_rings takes
+   * effect on the next start.
+   */
+  public synchronized void init() {
+    if (rings != null) {
+      return;
+    }
+    String value = AppManager.getInstance().getConfigValue("telemetry_rings", DEFAULT_RINGS);
+    List<SampleRing> list = parseRings(value);
+    if (list.isEmpty()) {
+      list = parseRings(DEFAULT_RINGS);
+    }
+    int baseSec = list.get(0).getResolutionSec();
+    steps = new int[list.size()];
+    for (int i = 0; i < list.size(); i++) {
+      steps[i] = list.get(i).getResolutionSec() / baseSec;
+    }
+    sampler = new JvmSampler();
+    rings = list.toArray(new SampleRing[list.size()]);
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < rings.length; i++) {
+      if (i > 0) {
+        sb.append(" ");
+      }
+      sb.append(rings[i].getResolutionSec() + "s*" + rings[i].getCapacity());
+    }
+    Log.i("Telemetry: rings=" + sb.toString() + " pools=" + sampler.getPoolNames().size() + " collectors=" + sampler.getCollectorNames().size());
+  }
+
+  /**
+   * Parses the ring definition.<br>
+   * The rings are sorted by resolution, and a resolution that is not a
+   * multiple of the finest one is ignored.
+   */
+  private List<SampleRing> parseRings(String value) {
+    List<SampleRing> list = new ArrayList<>();
+    if (value == null) {
+      return list;
+    }
+    String[] defs = value.split(",");
+    for (int i = 0; i < defs.length; i++) {
+      String[] wk = defs[i].trim().split(":");
+      try {
+        int resolutionSec = Integer.parseInt(wk[0].trim());
+        int count = Integer.parseInt(wk[1].trim());
+        if ((resolutionSec > 0) && (count > 0)) {
+          list.add(new SampleRing(resolutionSec, count));
+          continue;
+        }
+      } catch (Exception e) {
+        // invalid format
+      }
+      Log.w("Invalid telemetry ring: " + defs[i]);
+    }
+    list.sort((a, b) -> a.getResolutionSec() - b.getResolutionSec());
+    if (!list.isEmpty()) {
+      int baseSec = list.get(0).getResolutionSec();
+      list.removeIf(ring -> {
+        if (ring.getResolutionSec() % baseSec != 0) {
+          Log.w("Telemetry ring ignored: resolution " + ring.getResolutionSec() + "s is not a multiple of " + baseSec + "s");
+          return true;
+        }
+        return false;
+      });
+    }
+    return list;
+  }
+
+  /**
+   * Returns the sampling interval.
+   *
+   * @return the finest resolution in seconds
+   */
+  public int getSampleIntervalSec() {
+    return rings[0].getResolutionSec();
+  }
+
+  /**
+   * Takes a sample and adds it to the rings.<br>
+   * This is called by the sampler task at the sampling interval.
+   */
+  public void sample() {
+    JvmSample sample = sampler.sample();
+    synchronized (this) {
+      for (int i = 0; i < rings.length; i++) {
+        if (sampleCount % steps[i] == 0) {
+          rings[i].add(sample);
+        }
+      }
+      sampleCount++;
+    }
+  }
+
+  /**
+   * Returns the rings from the finest resolution.
+   *
+   * @return the rings
+   */
+  public SampleRing[] getRings() {
+    return rings;
+  }
+
+  /**
+   * Returns the ring of the resolution.
+   *
+   * @param resolutionSec
+   *          the resolution in seconds
+   * @return the ring. null if not found.
+   */
+  public SampleRing getRing(int resolutionSec) {
+    for (int i = 0; i < rings.length; i++) {
+      if (rings[i].getResolutionSec() == resolutionSec) {
+        return rings[i];
+      }
+    }
+    return null;
+  }
+
+  public List<String> getPoolNames() {
+    return sampler.getPoolNames();
+  }
+
+  public boolean isHeapPool(int index) {
+    return sampler.isHeapPool(index);
+  }
+
+  public List<String> getCollectorNames() {
+    return sampler.getCollectorNames();
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.user;
+
+import java.io.IOException;
+
+import com.takashiharano.webapp0.storage.DataStore;
+
+/**
+ * An append-only log of the changes to the records of a data file.<br>
+ * Each change is written as one line:
+ *
+ * <pre>
+ * P[TAB]record   : add or replace the record
+ * D[TAB]id       : delete the record
+ * </pre>
+ *
+ * The owner replays the journal over the data file on load, and rewrites the
+ * data file and clears the journal on compaction.
+ */
+public class ChangeJournal {
+
+  public static final String TYPE_PUT = "P";
+  public static final String TYPE_DELETE = "D";
+
+  private DataStore store;
+  private String key;
+  private int entryCount;
+
+  /**
+   * Creates a journal.
+   *
+   * @param store
+   *          the store that holds the journal
+   * @param key
+   *          the key of the journal
+   */
+  public ChangeJournal(DataStore store, String key) {
+    this.store = store;
+    this.key = key;
+  }
+
+  /**
+   * Appends an addition or a replacement of the record.
+   *
+   * @param record
+   *          the record in the same format as the data file
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  public void put(String record) throws IOException {
+    append(TYPE_PUT + "\t" + record);
+  }
+
+  /**
+   * Appends a deletion of the record.
+   *
+   * @param id
+   *          the record id
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  public void delete(String id) throws IOException {
+    append(TYPE_DELETE + "\t" + id);
+  }
+
+  private synchronized void append(String line) throws IOException {
+    while (line.endsWith("\n") || line.endsWith("\r")) {
+      line = line.substring(0, line.length() - 1);
+    }
+    store.append(key, line + "\n");
+    entryCount++;
+  }
+
+  /**
+   * Reads all entries.
+   *
+   * @return the lines of the journal. empty if the journal does not exist.
+   */
+  public synchronized String[] readEntries() {
+    String[] lines = store.readLines(key);
+    if (lines == null) {
+      lines = new String[0];
+    }
+    entryCount = lines.length;
+    return lines;
+  }
+
+  /**
+   * Removes all entries.<br>
+   * This must be called after the data file has been rewritten.
+   *
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  public synchronized void clear() throws IOException {
+    store.delete(key);
+    entryCount = 0;
+  }
+
+  /**
+   * Returns the number of the entries written since the last compaction.
+   *
+   * @return the number of the entries
+   */
+  public synchronized int size() {
+    return entryCount;
+  }
+
+}
@@ -5,6 +5,7 @@
  */
 package com.takashiharano.webapp0.user;
 
+import java.util.BitSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -18,6 +19,7 @@ public class Group {
   private String gid;
   private String name;
   private Set<String> privileges;
+  private BitSet privilegeBits;
   private String description;
   private long createdDate;
   private long updatedDate;
@@ -35,6 +37,22 @@ public class Group {
     this.setUpdatedDate(updatedDate);
   }
 
+  /**
+   * Creates a copy of the group to be modified and published as a new record.
+   *
+   * @param src
+   *          the original group
+   */
+  public Group(Group src) {
+    this.gid = src.gid;
+    this.name = src.name;
+    this.privileges = new LinkedHashSet<>(src.privileges);
+    this.privilegeBits = src.privilegeBits;
+    this.description = src.description;
+    this.createdDate = src.createdDate;
+    this.updatedDate = src.updatedDate;
+  }
+
   /**
    * Returns the group id.
    *
@@ -110,6 +128,7 @@ public class Group {
    */
   public void setPrivileges(Set<String> privileges) {
     this.privileges = privileges;
+    this.privilegeBits = PrivilegeDictionary.getInstance().toBitSet(privileges);
   }
 
   /**
@@ -119,15 +138,25 @@ public class Group {
    *          the user privileges. "priv1 priv2 priv3..."
    */
   public void setPrivileges(String privileges) {
-    this.privileges = new LinkedHashSet<>();
-    if (privileges == null) {
-      return;
-    }
-    String[] p = privileges.trim().split(" ");
-    for (int i = 0; i < p.length; i++) {
-      String privilege = p[i];
-      this.privileges.add(privilege);
+    Set<String> privs = new LinkedHashSet<>();
+    if (privileges != null) {
+      String[] p = privileges.trim().split(" ");
+      for (int i = 0; i < p.length; i++) {
+        String privilege = p[i];
+        privs.add(privilege);
+      }
     }
+    setPrivileges(privs);
+  }
+
+  /**
+   * Returns the privileges as a bitset of the ids in PrivilegeDictionary.<br>
+   * The returned object must not be modified.
+   *
+   * @return the privilege bits
+   */
+  public BitSet getPrivilegeBits() {
+    return privilegeBits;
   }
 
   /**
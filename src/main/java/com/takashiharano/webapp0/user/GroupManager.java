@@ -11,22 +11,27 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import com.libutil.CsvBuilder;
-import com.libutil.FileUtil;
 import com.takashiharano.webapp0.AppManager;
+import com.takashiharano.webapp0.storage.DataStore;
 import com.takashiharano.webapp0.util.CsvFieldGetter;
+import com.takashiharano.webapp0.util.Log;
+import com.takashiharano.webapp0.util.Snapshot;
 
 public class GroupManager {
 
   private static final String GROUPS_FILE_NAME = "groups.txt";
+  private static final String GROUPS_JOURNAL_FILE_NAME = "groups.journal";
 
   private static GroupManager instance;
-  private Map<String, Group> groups;
+  private volatile Snapshot<Group> groups;
+  private ChangeJournal journal;
 
   /**
-   * Initializes the manager object and loads users info from a storage.
+   * Initializes the manager object.<br>
+   * The groups are loaded by init().
    */
   public GroupManager() {
-    init();
+    groups = new Snapshot<>();
   }
 
   public static GroupManager getInstance() {
@@ -57,7 +62,18 @@ public class GroupManager {
    * @return the map of group info
    */
   public Map<String, Group> getAllGroupInfo() {
-    return groups;
+    return groups.getMap();
+  }
+
+  /**
+   * Returns the version of the group table.<br>
+   * The version is incremented whenever a group is added, updated or deleted, or
+   * the groups are reloaded.
+   *
+   * @return the version
+   */
+  public long getVersion() {
+    return groups.getVersion();
   }
 
   /**
@@ -75,7 +91,7 @@ public class GroupManager {
    * @throws Exception
    *           if an error occurred
    */
-  public Group regieterNewGroup(String gid, String name, String privileges, String description) throws Exception {
+  public synchronized Group regieterNewGroup(String gid, String name, String privileges, String description) throws Exception {
     if (groups.containsKey(gid)) {
       throw new Exception("GROUP_ALREADY_EXISTS");
     }
@@ -85,10 +101,11 @@ public class GroupManager {
     long updatedDate = now;
 
     Group group = new Group(gid, name, privileges, description, createdDate, updatedDate);
-    groups.put(gid, group);
+    groups = groups.put(gid, group);
+    onGroupChanged(gid);
 
     try {
-      saveGroups();
+      journal.put(buildGroupRecord(group));
     } catch (IOException ioe) {
       throw new Exception("IO_ERROR_ON_USER_REGISTER");
     }
@@ -111,11 +128,13 @@ public class GroupManager {
    * @throws Exception
    *           if an error occurred
    */
-  public Group updateGroup(String gid, String name, String privileges, String description) throws Exception {
-    Group group = groups.get(gid);
-    if (group == null) {
+  public synchronized Group updateGroup(String gid, String name, String privileges, String description) throws Exception {
+    Group currentGroup = groups.get(gid);
+    if (currentGroup == null) {
       throw new Exception("GROUP_NOT_FOUND");
     }
+    // The changes are made on a copy and published at once.
+    Group group = new Group(currentGroup);
 
     boolean updated = false;
 
@@ -139,8 +158,13 @@ public class GroupManager {
       group.setUpdatedDate(now);
     }
 
+    groups = groups.put(gid, group);
+    if (privileges != null) {
+      onGroupChanged(gid);
+    }
+
     try {
-      saveGroups();
+      journal.put(buildGroupRecord(group));
     } catch (IOException ioe) {
       throw new Exception("IO_ERROR_ON_GROUP_UPDATE");
     }
@@ -156,14 +180,15 @@ public class GroupManager {
    * @throws Exception
    *           if an error occurred
    */
-  public void deleteGroup(String gid) throws Exception {
-    Group group = groups.remove(gid);
-    if (group == null) {
+  public synchronized void deleteGroup(String gid) throws Exception {
+    if (!groups.containsKey(gid)) {
       throw new Exception("GROUP_NOT_FOUND");
     }
+    groups = groups.remove(gid);
+    onGroupChanged(gid);
 
     try {
-      saveGroups();
+      journal.delete(gid);
     } catch (IOException ioe) {
       throw new Exception("IO_ERROR_ON_GROUP_DELETE");
     }
@@ -202,14 +227,14 @@ public class GroupManager {
   /**
    * Load user info from a storage.
    */
-  public void loadGroups() {
-    groups = new LinkedHashMap<>();
-    String dataPath = getDataPath();
-    String groupsFilePath = FileUtil.joinPath(dataPath, GROUPS_FILE_NAME);
+  public synchronized void loadGroups() {
+    LinkedHashMap<String, Group> groupMap = new LinkedHashMap<>();
+    DataStore store = getDataStore();
+    ChangeJournal newJournal = new ChangeJournal(store, GROUPS_JOURNAL_FILE_NAME);
 
-    String[] lines = FileUtil.readTextAsArray(groupsFilePath);
+    String[] lines = store.readLines(GROUPS_FILE_NAME);
     if (lines == null) {
-      return;
+      lines = new String[0];
     }
 
     for (int i = 0; i < lines.length; i++) {
@@ -217,68 +242,137 @@ public class GroupManager {
       if (line.startsWith("#")) {
         continue;
       }
+      Group group = parseGroupRecord(line);
+      groupMap.put(group.getGid(), group);
+    }
 
-      CsvFieldGetter csvFieldGetter = new CsvFieldGetter(line, "\t");
-      String gid = csvFieldGetter.getFieldValue();
-      String name = csvFieldGetter.getFieldValue();
-      String privileges = csvFieldGetter.getFieldValue();
-      String description = csvFieldGetter.getFieldValue();
-      long createdDate = csvFieldGetter.getFieldValueAsLong();
-      long updatedDate = csvFieldGetter.getFieldValueAsLong();
+    String[] entries = newJournal.readEntries();
+    for (int i = 0; i < entries.length; i++) {
+      String entry = entries[i];
+      int p = entry.indexOf('\t');
+      if (p < 0) {
+        continue;
+      }
+      String type = entry.substring(0, p);
+      String record = entry.substring(p + 1);
+      if (ChangeJournal.TYPE_PUT.equals(type)) {
+        Group group = parseGroupRecord(record);
+        groupMap.put(group.getGid(), group);
+      } else if (ChangeJournal.TYPE_DELETE.equals(type)) {
+        groupMap.remove(record);
+      }
+    }
 
-      Group group = new Group(gid, name, privileges, description);
-      group.setCreatedDate(createdDate);
-      group.setUpdatedDate(updatedDate);
+    journal = newJournal;
+    groups = new Snapshot<>(groupMap, groups.getVersion() + 1);
+    onGroupChanged(null);
+  }
 
-      groups.put(gid, group);
-    }
+  private Group parseGroupRecord(String line) {
+    CsvFieldGetter csvFieldGetter = new CsvFieldGetter(line, "\t");
+    String gid = csvFieldGetter.getFieldValue();
+    String name = csvFieldGetter.getFieldValue();
+    String privileges = csvFieldGetter.getFieldValue();
+    String description = csvFieldGetter.getFieldValue();
+    long createdDate = csvFieldGetter.getFieldValueAsLong();
+    long updatedDate = csvFieldGetter.getFieldValueAsLong();
+
+    Group group = new Group(gid, name, privileges, description);
+    group.setCreatedDate(createdDate);
+    group.setUpdatedDate(updatedDate);
+    return group;
   }
 
   /**
-   * Write group info into a storage.
+   * Write group info into a storage.<br>
+   * groups.txt is rewritten with all groups.
    *
    * @throws IOException
    *           if an IO error occurred
    */
-  public void saveGroups() throws IOException {
+  public synchronized void saveGroups() throws IOException {
     String header = "#GID\tName\tPrivileges\tDescription\tCreated\tUpdated\n";
 
     CsvBuilder csvBuilder = new CsvBuilder("\t", false);
     csvBuilder.appendAsIs(header);
 
-    for (Entry<String, Group> entry : groups.entrySet()) {
+    for (Entry<String, Group> entry : groups.getMap().entrySet()) {
       Group group = entry.getValue();
-      String gid = group.getGid();
-      String name = group.getName();
-      String privileges = group.getPrivilegesInOneLine();
-      String description = group.getDescription();
-      long createdDate = group.getCreatedDate();
-      long updatedDate = group.getUpdatedDate();
-
-      csvBuilder.append(gid);
-      csvBuilder.append(name);
-      csvBuilder.append(privileges);
-      csvBuilder.append(description);
-      csvBuilder.append(createdDate);
-      csvBuilder.append(updatedDate);
-      csvBuilder.nextRecord();
+      appendGroupRecord(csvBuilder, group);
     }
 
-    String dataPath = getDataPath();
-    String groupsFilePath = FileUtil.joinPath(dataPath, GROUPS_FILE_NAME);
     String data = csvBuilder.toString();
     try {
-      FileUtil.write(groupsFilePath, data);
+      getDataStore().write(GROUPS_FILE_NAME, data);
     } catch (IOException ioe) {
       ioe.printStackTrace();
       throw ioe;
     }
   }
 
-  private String getDataPath() {
+  /**
+   * Writes the changes in the journal back to groups.txt and clears the
+   * journal.
+   *
+   * @throws IOException
+   *           if an IO error occurred
+   */
+  public synchronized void compactJournal() throws IOException {
+    if (journal.size() == 0) {
+      return;
+    }
+    saveGroups();
+    journal.clear();
+  }
+
+  /**
+   * Callback for the web application shut down.
+   */
+  public void onStop() {
+    try {
+      compactJournal();
+    } catch (Exception e) {
+      Log.e(e);
+    }
+  }
+
+  private String buildGroupRecord(Group group) {
+    CsvBuilder csvBuilder = new CsvBuilder("\t", false);
+    appendGroupRecord(csvBuilder, group);
+    return csvBuilder.toString();
+  }
+
+  private void appendGroupRecord(CsvBuilder csvBuilder, Group group) {
+    String gid = group.getGid();
+    String name = group.getName();
+    String privileges = group.getPrivilegesInOneLine();
+    String description = group.getDescription();
+    long createdDate = group.getCreatedDate();
+    long updatedDate = group.getUpdatedDate();
+
+    csvBuilder.append(gid);
+    csvBuilder.append(name);
+    csvBuilder.append(privileges);
+    csvBuilder.append(description);
+    csvBuilder.append(createdDate);
+    csvBuilder.append(updatedDate);
+    csvBuilder.nextRecord();
+  }
+
+  /**
+   * Notifies the users that the privileges of the group have been changed.
+   *
+   * @param gid
+   *          the group id. null for all groups.
+   */
+  private void onGroupChanged(String gid) {
+    UserManager userManager = UserManager.getInstance();
+    userManager.onGroupChanged(gid);
+  }
+
+  private DataStore getDataStore() {
     AppManager appManager = AppManager.getInstance();
-    String workspacePath = appManager.getAppWorkspacePath();
-    return workspacePath;
+    return appManager.getDataStore();
   }
 
 }
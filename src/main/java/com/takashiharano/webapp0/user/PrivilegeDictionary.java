@@ -0,0 +1,97 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.user;
+
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The table that assigns an int id to each privilege name.<br>
+ * The ids are used as the bit positions of the privilege bitsets of the users
+ * and groups. An id is never reused while the application is running.
+ */
+public class PrivilegeDictionary {
+
+  private static PrivilegeDictionary instance = new PrivilegeDictionary();
+
+  private ConcurrentHashMap<String, Integer> ids;
+
+  private PrivilegeDictionary() {
+    ids = new ConcurrentHashMap<>();
+  }
+
+  public static PrivilegeDictionary getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the id of the privilege. A new id is assigned if the privilege is
+   * not registered yet.
+   *
+   * @param privilege
+   *          the privilege name
+   * @return the id
+   */
+  public int intern(String privilege) {
+    Integer id = ids.get(privilege);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      return ids.computeIfAbsent(privilege, k -> ids.size());
+    }
+  }
+
+  /**
+   * Returns the id of the privilege without registering it.
+   *
+   * @param privilege
+   *          the privilege name
+   * @return the id. -1 if the privilege is not granted to anyone.
+   */
+  public int getId(String privilege) {
+    if (privilege == null) {
+      return -1;
+    }
+    Integer id = ids.get(privilege);
+    if (id == null) {
+      return -1;
+    }
+    return id;
+  }
+
+  /**
+   * Converts the privilege names into a bitset.
+   *
+   * @param privileges
+   *          the privilege names
+   * @return the bitset
+   */
+  public BitSet toBitSet(Set<String> privileges) {
+    BitSet bits = new BitSet();
+    if (privileges == null) {
+      return bits;
+    }
+    for (String privilege : privileges) {
+      if ("".equals(privilege)) {
+        continue;
+      }
+      bits.set(intern(privilege));
+    }
+    return bits;
+  }
+
+  /**
+   * Returns the number of the registered privileges.
+   *
+   * @return the number of the privileges
+   */
+  public int size() {
+    return ids.size();
+  }
+
+}
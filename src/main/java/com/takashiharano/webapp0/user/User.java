@@ -5,8 +5,10 @@
  */
 package com.takashiharano.webapp0.user;
 
+import java.util.BitSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.libutil.JsonBuilder;
 import com.takashiharano.webapp0.util.AppUtil;
@@ -27,6 +29,8 @@ public class User {
   private boolean admin;
   private Set<String> groups;
   private Set<String> privileges;
+  private volatile PrivilegeCache effectivePrivileges;
+  private final AtomicLong privilegeGeneration = new AtomicLong();
   private String info1;
   private String info2;
   private String info3;
@@ -67,6 +71,33 @@ public class User {
     this.userStatus = new UserStatus(userId);
   }
 
+  /**
+   * Creates a copy of the user to be modified and published as a new
+   * record.<br>
+   * The status info is shared with the original.
+   *
+   * @param src
+   *          the original user
+   */
+  public User(User src) {
+    this.userId = src.userId;
+    this.fullname = src.fullname;
+    this.localFullName = src.localFullName;
+    this.aliasName = src.aliasName;
+    this.email = src.email;
+    this.admin = src.admin;
+    this.groups = new LinkedHashSet<>(src.groups);
+    this.privileges = new LinkedHashSet<>(src.privileges);
+    this.info1 = src.info1;
+    this.info2 = src.info2;
+    this.info3 = src.info3;
+    this.memo = src.memo;
+    this.flags = src.flags;
+    this.createdAt = src.createdAt;
+    this.updatedAt = src.updatedAt;
+    this.userStatus = src.userStatus;
+  }
+
   /**
    * Returns user id.
    *
@@ -196,6 +227,7 @@ public class User {
       String groupName = p[i];
       this.groups.add(groupName);
     }
+    invalidateEffectivePrivileges();
   }
 
   /**
@@ -206,6 +238,7 @@ public class User {
    */
   public void addGroup(String group) {
     groups.add(group);
+    invalidateEffectivePrivileges();
   }
 
   /**
@@ -216,6 +249,7 @@ public class User {
    */
   public void removeGroup(String group) {
     groups.remove(group);
+    invalidateEffectivePrivileges();
   }
 
   /**
@@ -269,6 +303,7 @@ public class User {
    */
   public void setPrivileges(LinkedHashSet<String> privileges) {
     this.privileges = privileges;
+    invalidateEffectivePrivileges();
   }
 
   /**
@@ -279,6 +314,7 @@ public class User {
    */
   public void setPrivileges(String privileges) {
     this.privileges = new LinkedHashSet<>();
+    invalidateEffectivePrivileges();
     if (privileges == null) {
       return;
     }
@@ -297,6 +333,7 @@ public class User {
    */
   public void addPrivilege(String privilege) {
     privileges.add(privilege);
+    invalidateEffectivePrivileges();
   }
 
   /**
@@ -307,6 +344,7 @@ public class User {
    */
   public void removePrivilege(String privilege) {
     privileges.remove(privilege);
+    invalidateEffectivePrivileges();
   }
 
   /**
@@ -352,17 +390,69 @@ public class User {
    * @return true if the user has the privilege. always true if the user is admin.
    */
   public boolean hasPermission(String privilege) {
-    if (hasPrivilege(privilege)) {
+    if (isAdmin()) {
       return true;
     }
+    int id = PrivilegeDictionary.getInstance().getId(privilege);
+    if (id < 0) {
+      return false;
+    }
+    return getEffectivePrivileges().get(id);
+  }
+
+  /**
+   * Returns the privileges of the user and the groups to which the user belongs
+   * as a bitset of the ids in PrivilegeDictionary.<br>
+   * The bitset is computed on the first call after the inputs have changed. The
+   * returned object must not be modified.
+   *
+   * @return the effective privilege bits
+   */
+  public BitSet getEffectivePrivileges() {
+    // The generation is read before computing, so a bitset computed from the
+    // old groups while being invalidated is never returned by a later call.
+    long generation = privilegeGeneration.get();
+    PrivilegeCache cache = effectivePrivileges;
+    if ((cache != null) && (cache.generation == generation)) {
+      return cache.bits;
+    }
+    BitSet bits = computeEffectivePrivileges();
+    effectivePrivileges = new PrivilegeCache(generation, bits);
+    return bits;
+  }
+
+  /**
+   * Discards the effective privileges.<br>
+   * This must be called when the privileges of the user or of a group to which
+   * the user belongs have been changed, after the change has been published.
+   */
+  public void invalidateEffectivePrivileges() {
+    privilegeGeneration.incrementAndGet();
+  }
+
+  /**
+   * The effective privileges and the generation they were computed for.
+   */
+  private static class PrivilegeCache {
+    final long generation;
+    final BitSet bits;
+
+    PrivilegeCache(long generation, BitSet bits) {
+      this.generation = generation;
+      this.bits = bits;
+    }
+  }
 
+  private BitSet computeEffectivePrivileges() {
+    BitSet bits = PrivilegeDictionary.getInstance().toBitSet(privileges);
     GroupManager groupManager = GroupManager.getInstance();
     for (String gid : groups) {
-      if (groupManager.hasPrivilege(gid, privilege)) {
-        return true;
+      Group group = groupManager.getGroupInfo(gid);
+      if (group != null) {
+        bits.or(group.getPrivilegeBits());
       }
     }
-    return false;
+    return bits;
   }
 
   /**
@@ -6,38 +6,56 @@
 package com.takashiharano.webapp0.user;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.libutil.CsvBuilder;
 import com.libutil.FileUtil;
-import com.libutil.Props;
 import com.libutil.StrUtil;
 import com.libutil.auth.Authenticator;
 import com.takashiharano.webapp0.AppManager;
 import com.takashiharano.webapp0.ProcessContext;
+import com.takashiharano.webapp0.storage.DataStore;
 import com.takashiharano.webapp0.util.CsvFieldGetter;
 import com.takashiharano.webapp0.util.Log;
+import com.takashiharano.webapp0.util.Snapshot;
+import com.takashiharano.webapp0.util.StripedLock;
 
 public class UserManager {
 
   private static final String USERS_FILE_NAME = "users.txt";
   private static final String USERS_PW_FILE_NAME = "userspw.txt";
+  private static final String USERS_JOURNAL_FILE_NAME = "users.journal";
   private static final String USER_DATA_ROOT_DIR = "users";
   private static final String USER_STATUS_FILE_NAME = "status.txt";
   private static final String USER_MEMO_FILE_NAME = "memo.txt";
+  private static final int DEFAULT_STATUS_FLUSH_INTERVAL_SEC = 30;
 
   private static UserManager instance;
 
-  private Map<String, User> users;
-  private Authenticator authenticator;
+  private volatile Snapshot<User> users;
+  private volatile Authenticator authenticator;
+  private ChangeJournal journal;
+  private StripedLock userLocks;
+  private Set<String> dirtyStatusUserIds;
+  private int statusFlushIntervalSec;
 
   /**
-   * Initializes the manager object and loads users info from a storage.
+   * Initializes the manager object.<br>
+   * The users are loaded by init().
    */
   public UserManager() {
-    init();
+    users = new Snapshot<>();
+    userLocks = new StripedLock(64);
+    dirtyStatusUserIds = ConcurrentHashMap.newKeySet();
   }
 
   public static UserManager getInstance() {
@@ -53,7 +71,30 @@ public class UserManager {
     return path;
   }
 
+  /**
+   * Returns the key of the user's data entry in the DataStore.
+   *
+   * @param userId
+   *          target user id
+   * @param name
+   *          the entry name such as "status.txt"
+   * @return the key
+   */
+  public static String getUserDataKey(String userId, String name) {
+    return getUserDataKeyPrefix(userId) + name;
+  }
+
+  private static String getUserDataKeyPrefix(String userId) {
+    return USER_DATA_ROOT_DIR + "/" + userId + "/";
+  }
+
+  private static DataStore getDataStore() {
+    return AppManager.getInstance().getDataStore();
+  }
+
   public void init() {
+    AppManager appManager = AppManager.getInstance();
+    statusFlushIntervalSec = appManager.getConfigValueAsInteger("user_status_flush_interval_sec", DEFAULT_STATUS_FLUSH_INTERVAL_SEC);
     loadUsers();
   }
 
@@ -65,7 +106,7 @@ public class UserManager {
    * @param timestamp
    *          the timestamp of the current date-time
    */
-  public synchronized void onAccess(ProcessContext context, long timestamp) {
+  public void onAccess(ProcessContext context, long timestamp) {
     String userId = context.getUserId();
     if (userId == null) {
       return;
@@ -78,6 +119,12 @@ public class UserManager {
 
     userStatus.setLastAccess(timestamp);
 
+    // The last access time is written in batch by UserStatusFlusher.
+    if (isStatusWriteBehindEnabled()) {
+      dirtyStatusUserIds.add(userId);
+      return;
+    }
+
     try {
       saveUserStatus(userId, userStatus);
     } catch (IOException ioe) {
@@ -85,16 +132,79 @@ public class UserManager {
     }
   }
 
+  /**
+   * Returns the interval of the batched write of the last access time.<br>
+   * The value is defined in app.properties with "user_status_flush_interval_sec"
+   * field. 0 means that the status is written on every access.
+   *
+   * @return the interval in seconds
+   */
+  public int getStatusFlushInterval() {
+    return statusFlushIntervalSec;
+  }
+
+  /**
+   * Returns whether the last access time is written by the background flusher.
+   *
+   * @return true if the write-behind mode is enabled
+   */
+  public boolean isStatusWriteBehindEnabled() {
+    return statusFlushIntervalSec > 0;
+  }
+
+  /**
+   * Writes the status of the users accessed since the last flush.<br>
+   * This is called periodically by UserStatusFlusher. The users whose status
+   * could not be written are written in the next flush.
+   *
+   * @return the number of the written users
+   * @throws IOException
+   *           if the status of any user could not be written
+   */
+  public int flushDirtyUserStatus() throws IOException {
+    int count = 0;
+    List<String> failedUserIds = null;
+    Iterator<String> it = dirtyStatusUserIds.iterator();
+    while (it.hasNext()) {
+      String userId = it.next();
+      it.remove();
+      UserStatus userStatus = getUserStatusInfo(userId);
+      if (userStatus == null) {
+        continue;
+      }
+      try {
+        saveUserStatus(userId, userStatus);
+        count++;
+      } catch (IOException ioe) {
+        Log.e("Write user status error: user=" + userId + ": " + ioe);
+        if (failedUserIds == null) {
+          failedUserIds = new ArrayList<>();
+        }
+        failedUserIds.add(userId);
+      }
+    }
+    // Marked again after the loop so that the iterator does not retry them now.
+    if (failedUserIds != null) {
+      dirtyStatusUserIds.addAll(failedUserIds);
+      throw new IOException("User status write failed: " + failedUserIds.size() + " user(s)");
+    }
+    return count;
+  }
+
   /**
    * Callback for the web application shut down.<br>
    * This is called by AppManager#onStop().
    */
   public void onStop() {
     try {
+      // Pending writes are covered by saving all.
+      dirtyStatusUserIds.clear();
       saveAllUserStatus();
+      compactJournal();
     } catch (Exception e) {
       Log.e(e);
     }
+    Log.i("User status stats: lock_contention=" + getLockContentionCount());
   }
 
   /**
@@ -103,7 +213,18 @@ public class UserManager {
    * @return the map of user info
    */
   public Map<String, User> getAllUserInfo() {
-    return users;
+    return users.getMap();
+  }
+
+  /**
+   * Returns the version of the user table.<br>
+   * The version is incremented whenever a user is added, updated or deleted, or
+   * the users are reloaded.
+   *
+   * @return the version
+   */
+  public long getVersion() {
+    return users.getVersion();
   }
 
   /**
@@ -112,10 +233,11 @@ public class UserManager {
    * @return all user IDs
    */
   public String[] getAllUserIds() {
-    int size = users.size();
+    Map<String, User> userMap = users.getMap();
+    int size = userMap.size();
     String[] ids = new String[size];
     int i = 0;
-    for (Entry<String, User> entry : users.entrySet()) {
+    for (Entry<String, User> entry : userMap.entrySet()) {
       String userId = entry.getKey();
       ids[i] = userId;
       i++;
@@ -195,52 +317,89 @@ public class UserManager {
   }
 
   /**
-   * Load user info from a storage.
+   * Load user info from a storage.<br>
+   * The changes in the journal are applied over users.txt. The loaded users
+   * replace the current ones at once when all of them have been read.
    */
-  public void loadUsers() {
-    users = new LinkedHashMap<>();
+  public synchronized void loadUsers() {
+    LinkedHashMap<String, User> userMap = new LinkedHashMap<>();
+    DataStore store = getDataStore();
     String dataPath = getDataPath();
-    String usersFile = FileUtil.joinPath(dataPath, USERS_FILE_NAME);
+    // The password file is read by the Authenticator directly.
     String passFile = FileUtil.joinPath(dataPath, USERS_PW_FILE_NAME);
-    authenticator = new Authenticator(passFile, 1);
+    Authenticator newAuthenticator = new Authenticator(passFile, 1);
+    ChangeJournal newJournal = new ChangeJournal(store, USERS_JOURNAL_FILE_NAME);
 
-    String[] lines = FileUtil.readTextAsArray(usersFile);
+    String[] lines = store.readLines(USERS_FILE_NAME);
+    if (lines == null) {
+      lines = new String[0];
+    }
     for (int i = 0; i < lines.length; i++) {
       String line = lines[i];
       if (line.startsWith("#")) {
         continue;
       }
+      User user = parseUserRecord(line);
+      userMap.put(user.getUserId(), user);
+    }
 
-      CsvFieldGetter csvFieldGetter = new CsvFieldGetter(line, "\t");
-      String userId = csvFieldGetter.getFieldValue();
-      String fullname = csvFieldGetter.getFieldValue();
-      String localFullName = csvFieldGetter.getFieldValue();
-      String aliaslName = csvFieldGetter.getFieldValue();
-      String email = csvFieldGetter.getFieldValue();
-      boolean isAdmin = csvFieldGetter.getFieldValueAsBoolean("1");
-      String groups = csvFieldGetter.getFieldValue();
-      String privileges = csvFieldGetter.getFieldValue();
-      String info1 = csvFieldGetter.getFieldValue();
-      String info2 = csvFieldGetter.getFieldValue();
-      String info3 = csvFieldGetter.getFieldValue();
-      int status = csvFieldGetter.getFieldValueAsInteger(User.FLAG_NEED_PW_CHANGE);
-      long createdAt = csvFieldGetter.getFieldValueAsLong();
-      long updatedAt = csvFieldGetter.getFieldValueAsLong();
-      String memo = loadUserMemo(userId);
-
-      User user = new User(userId, fullname, localFullName, aliaslName, email, isAdmin, groups, privileges, info1, info2, info3, memo, status);
-      user.setCreatedAt(createdAt);
-      user.setUpdatedAt(updatedAt);
+    String[] entries = newJournal.readEntries();
+    for (int i = 0; i < entries.length; i++) {
+      String entry = entries[i];
+      int p = entry.indexOf('\t');
+      if (p < 0) {
+        continue;
+      }
+      String type = entry.substring(0, p);
+      String record = entry.substring(p + 1);
+      if (ChangeJournal.TYPE_PUT.equals(type)) {
+        User user = parseUserRecord(record);
+        userMap.put(user.getUserId(), user);
+      } else if (ChangeJournal.TYPE_DELETE.equals(type)) {
+        userMap.remove(record);
+      }
+    }
 
+    // The per-user files are read in parallel on the common fork-join pool.
+    userMap.values().parallelStream().forEach(user -> {
+      String userId = user.getUserId();
+      String memo = loadUserMemo(userId);
+      user.setMemo(memo);
       UserStatus userStatus = loadUserStatus(userId);
       user.setUserStatus(userStatus);
+    });
 
-      users.put(userId, user);
-    }
+    authenticator = newAuthenticator;
+    journal = newJournal;
+    users = new Snapshot<>(userMap, users.getVersion() + 1);
+  }
+
+  private User parseUserRecord(String line) {
+    CsvFieldGetter csvFieldGetter = new CsvFieldGetter(line, "\t");
+    String userId = csvFieldGetter.getFieldValue();
+    String fullname = csvFieldGetter.getFieldValue();
+    String localFullName = csvFieldGetter.getFieldValue();
+    String aliaslName = csvFieldGetter.getFieldValue();
+    String email = csvFieldGetter.getFieldValue();
+    boolean isAdmin = csvFieldGetter.getFieldValueAsBoolean("1");
+    String groups = csvFieldGetter.getFieldValue();
+    String privileges = csvFieldGetter.getFieldValue();
+    String info1 = csvFieldGetter.getFieldValue();
+    String info2 = csvFieldGetter.getFieldValue();
+    String info3 = csvFieldGetter.getFieldValue();
+    int status = csvFieldGetter.getFieldValueAsInteger(User.FLAG_NEED_PW_CHANGE);
+    long createdAt = csvFieldGetter.getFieldValueAsLong();
+    long updatedAt = csvFieldGetter.getFieldValueAsLong();
+
+    User user = new User(userId, fullname, localFullName, aliaslName, email, isAdmin, groups, privileges, info1, info2, info3, null, status);
+    user.setCreatedAt(createdAt);
+    user.setUpdatedAt(updatedAt);
+    return user;
   }
 
   /**
-   * Write user info into a storage.
+   * Write user info into a storage.<br>
+   * users.txt is rewritten with all users. The memo files are not written.
    *
    * @throws IOException
    *           if an IO error occurres
@@ -250,55 +409,76 @@ public class UserManager {
     csvBuilder.setLineBreak("\n");
     csvBuilder = buildTsvHeader(csvBuilder);
 
-    for (Entry<String, User> entry : users.entrySet()) {
+    for (Entry<String, User> entry : users.getMap().entrySet()) {
       User user = entry.getValue();
-      String userId = user.getUserId();
-      String fullname = user.getFullName();
-      String localFullName = user.getLocalFullName();
-      String aliasName = user.getAliasName();
-      String email = user.getEmail();
-      boolean isAdmin = user.isAdmin();
-      String adminFlag = (isAdmin ? "1" : "0");
-      String groups = user.getGroupsInOneLine();
-      String privileges = user.getPrivilegesInOneLine();
-      String info1 = user.getInfo1();
-      String info2 = user.getInfo2();
-      String info3 = user.getInfo3();
-      String memo = user.getMemo();
-      int flags = user.getFlags();
-      long createdAt = user.getCreatedAt();
-      long updatedAt = user.getUpdatedAt();
-
-      csvBuilder.append(userId);
-      csvBuilder.append(fullname);
-      csvBuilder.append(localFullName);
-      csvBuilder.append(aliasName);
-      csvBuilder.append(email);
-      csvBuilder.append(adminFlag);
-      csvBuilder.append(groups);
-      csvBuilder.append(privileges);
-      csvBuilder.append(info1);
-      csvBuilder.append(info2);
-      csvBuilder.append(info3);
-      csvBuilder.append(flags);
-      csvBuilder.append(createdAt);
-      csvBuilder.append(updatedAt);
-      csvBuilder.nextRecord();
-
-      saveUserMemo(userId, memo);
+      appendUserRecord(csvBuilder, user);
     }
 
-    String dataPath = getDataPath();
-    String usersFilePath = FileUtil.joinPath(dataPath, USERS_FILE_NAME);
     String data = csvBuilder.toString();
     try {
-      FileUtil.write(usersFilePath, data);
+      getDataStore().write(USERS_FILE_NAME, data);
     } catch (IOException ioe) {
       ioe.printStackTrace();
       throw ioe;
     }
   }
 
+  /**
+   * Writes the changes in the journal back to users.txt and clears the
+   * journal.
+   *
+   * @throws IOException
+   *           if an IO error occurres
+   */
+  public synchronized void compactJournal() throws IOException {
+    if (journal.size() == 0) {
+      return;
+    }
+    saveUsers();
+    journal.clear();
+  }
+
+  private String buildUserRecord(User user) {
+    CsvBuilder csvBuilder = new CsvBuilder("\t", false);
+    csvBuilder.setLineBreak("\n");
+    appendUserRecord(csvBuilder, user);
+    return csvBuilder.toString();
+  }
+
+  private void appendUserRecord(CsvBuilder csvBuilder, User user) {
+    String userId = user.getUserId();
+    String fullname = user.getFullName();
+    String localFullName = user.getLocalFullName();
+    String aliasName = user.getAliasName();
+    String email = user.getEmail();
+    boolean isAdmin = user.isAdmin();
+    String adminFlag = (isAdmin ? "1" : "0");
+    String groups = user.getGroupsInOneLine();
+    String privileges = user.getPrivilegesInOneLine();
+    String info1 = user.getInfo1();
+    String info2 = user.getInfo2();
+    String info3 = user.getInfo3();
+    int flags = user.getFlags();
+    long createdAt = user.getCreatedAt();
+    long updatedAt = user.getUpdatedAt();
+
+    csvBuilder.append(userId);
+    csvBuilder.append(fullname);
+    csvBuilder.append(localFullName);
+    csvBuilder.append(aliasName);
+    csvBuilder.append(email);
+    csvBuilder.append(adminFlag);
+    csvBuilder.append(groups);
+    csvBuilder.append(privileges);
+    csvBuilder.append(info1);
+    csvBuilder.append(info2);
+    csvBuilder.append(info3);
+    csvBuilder.append(flags);
+    csvBuilder.append(createdAt);
+    csvBuilder.append(updatedAt);
+    csvBuilder.nextRecord();
+  }
+
   private CsvBuilder buildTsvHeader(CsvBuilder csvBuilder) {
     csvBuilder.append("#uid");
     csvBuilder.append("fullname");
@@ -353,7 +533,7 @@ public class UserManager {
    * @throws Exception
    *           if an error occurres
    */
-  public User regieterNewUser(String userId, String pwHash, String fullname, String localFullName, String aliasName, String email, String adminFlag, String groups, String privileges, String info1, String info2, String info3, String memo, String userFlags) throws Exception {
+  public synchronized User regieterNewUser(String userId, String pwHash, String fullname, String localFullName, String aliasName, String email, String adminFlag, String groups, String privileges, String info1, String info2, String info3, String memo, String userFlags) throws Exception {
     if (users.containsKey(userId)) {
       throw new Exception("USER_ALREADY_EXISTS");
     }
@@ -374,10 +554,11 @@ public class UserManager {
     if (StrUtil.isEmpty(userFlags)) {
       user.setFlag(User.FLAG_NEED_PW_CHANGE);
     }
-    users.put(userId, user);
+    users = users.put(userId, user);
 
     try {
-      saveUsers();
+      journal.put(buildUserRecord(user));
+      saveUserMemo(userId, user.getMemo());
     } catch (IOException ioe) {
       throw new Exception("IO_ERROR_ON_USER_REGISTER");
     }
@@ -422,11 +603,13 @@ public class UserManager {
    * @throws Exception
    *           if an error occurres
    */
-  public User updateUser(String userId, String pwHash, String fullname, String localFullName, String aliasName, String email, String adminFlag, String groups, String privileges, String info1, String info2, String info3, String memo, String userFlags, boolean onlyChangePass) throws Exception {
-    User user = users.get(userId);
-    if (user == null) {
+  public synchronized User updateUser(String userId, String pwHash, String fullname, String localFullName, String aliasName, String email, String adminFlag, String groups, String privileges, String info1, String info2, String info3, String memo, String userFlags, boolean onlyChangePass) throws Exception {
+    User currentUser = users.get(userId);
+    if (currentUser == null) {
       throw new Exception("USER_NOT_FOUND");
     }
+    // The changes are made on a copy and published at once.
+    User user = new User(currentUser);
 
     boolean updated = false;
 
@@ -509,8 +692,10 @@ public class UserManager {
       userStatus.setPwChangedTime(now);
     }
 
+    users = users.put(userId, user);
+
     try {
-      saveUsers();
+      journal.put(buildUserRecord(user));
       saveUserStatus(userId, userStatus);
       if (memo != null) {
         saveUserMemo(userId, memo);
@@ -536,6 +721,22 @@ public class UserManager {
     updateUser(userId, pwHash, null, null, null, null, null, null, null, null, null, null, null, null, true);
   }
 
+  /**
+   * Discards the effective privileges of the users who belong to the group.<br>
+   * This is called when the privileges of the group have been changed.
+   *
+   * @param gid
+   *          the group id. null for all users.
+   */
+  public void onGroupChanged(String gid) {
+    for (Entry<String, User> entry : users.getMap().entrySet()) {
+      User user = entry.getValue();
+      if ((gid == null) || user.isBelongToGroup(gid)) {
+        user.invalidateEffectivePrivileges();
+      }
+    }
+  }
+
   /**
    * Deletes a user
    *
@@ -544,18 +745,18 @@ public class UserManager {
    * @throws Exception
    *           if an error occures
    */
-  public void deleteUser(String userId) throws Exception {
+  public synchronized void deleteUser(String userId) throws Exception {
     User user = users.get(userId);
     if (user == null) {
       throw new Exception("USER_NOT_FOUND");
     }
 
     authenticator.remove(userId);
-    users.remove(userId);
+    users = users.remove(userId);
     deleteUserDataDir(userId);
 
     try {
-      saveUsers();
+      journal.delete(userId);
     } catch (IOException ioe) {
       throw new Exception("IO_ERROR_ON_USER_DELETE");
     }
@@ -584,9 +785,8 @@ public class UserManager {
    * @return the memo text
    */
   public String loadUserMemo(String userId) {
-    String userDataPath = getUserDataPath(userId);
-    String path = FileUtil.joinPath(userDataPath, USER_MEMO_FILE_NAME);
-    String memo = FileUtil.readText(path);
+    String key = getUserDataKey(userId, USER_MEMO_FILE_NAME);
+    String memo = getDataStore().read(key);
     if (memo == null) {
       memo = "";
     }
@@ -604,13 +804,13 @@ public class UserManager {
    *           if an IO error occurres
    */
   public void saveUserMemo(String userId, String memo) throws IOException {
-    String userDataPath = getUserDataPath(userId);
-    String path = FileUtil.joinPath(userDataPath, USER_MEMO_FILE_NAME);
+    String key = getUserDataKey(userId, USER_MEMO_FILE_NAME);
+    DataStore store = getDataStore();
     try {
       if ("".equals(memo)) {
-        FileUtil.delete(path);
+        store.delete(key);
       } else {
-        FileUtil.write(path, memo);
+        store.write(key, memo);
       }
     } catch (IOException ioe) {
       ioe.printStackTrace();
@@ -626,19 +826,30 @@ public class UserManager {
    * @return UserStatus object
    */
   public UserStatus loadUserStatus(String userId) {
-    String userDataPath = getUserDataPath(userId);
-    String path = FileUtil.joinPath(userDataPath, USER_STATUS_FILE_NAME);
+    String key = getUserDataKey(userId, USER_STATUS_FILE_NAME);
     UserStatus userStatus;
     try {
-      Props props = new Props(path);
-      long lastAccess = props.getValueAsLong("last_access");
-      long pwChangedTime = props.getValueAsLong("pw_changed_at");
-      int loginFailedCount = props.getValueAsInteger("login_failed_count");
-      long loginFailedTime = props.getValueAsLong("login_failed_time");
+      String[] lines = getDataStore().readLines(key);
+      if (lines == null) {
+        return new UserStatus(userId);
+      }
+      Map<String, String> props = new HashMap<>();
+      for (int i = 0; i < lines.length; i++) {
+        String line = lines[i];
+        int p = line.indexOf('=');
+        if ((p < 0) || line.startsWith("#")) {
+          continue;
+        }
+        props.put(line.substring(0, p).trim(), line.substring(p + 1).trim());
+      }
+      long lastAccess = getStatusValueAsLong(props, "last_access");
+      long pwChangedTime = getStatusValueAsLong(props, "pw_changed_at");
+      int loginFailedCount = (int) getStatusValueAsLong(props, "login_failed_count");
+      long loginFailedTime = getStatusValueAsLong(props, "login_failed_time");
       userStatus = new UserStatus(userId, lastAccess, pwChangedTime, loginFailedCount, loginFailedTime);
 
-      long lastLogin = props.getValueAsLong("last_login");
-      long lastLogout = props.getValueAsLong("last_logout");
+      long lastLogin = getStatusValueAsLong(props, "last_login");
+      long lastLogout = getStatusValueAsLong(props, "last_logout");
       userStatus.setLastLogin(lastLogin);
       userStatus.setLastLogout(lastLogout);
     } catch (Exception e) {
@@ -647,6 +858,14 @@ public class UserManager {
     return userStatus;
   }
 
+  private long getStatusValueAsLong(Map<String, String> props, String name) {
+    String value = props.get(name);
+    if ((value == null) || "".equals(value)) {
+      return 0L;
+    }
+    return Long.parseLong(value);
+  }
+
   /**
    * Write all user status info into a storage.
    *
@@ -654,7 +873,7 @@ public class UserManager {
    *           if an IO error occurres
    */
   public void saveAllUserStatus() throws IOException {
-    for (Entry<String, User> entry : users.entrySet()) {
+    for (Entry<String, User> entry : users.getMap().entrySet()) {
       String userId = entry.getKey();
       User user = entry.getValue();
       UserStatus userStatus = user.getUserStatus();
@@ -669,6 +888,32 @@ public class UserManager {
   }
 
   public void saveUserStatus(String userId, UserStatus userStatus) throws IOException {
+    ReentrantLock lock = userLocks.lock(userId);
+    try {
+      // Removed before the write so that a change during the write stays dirty.
+      dirtyStatusUserIds.remove(userId);
+      try {
+        writeUserStatus(userId, userStatus);
+      } catch (IOException e) {
+        dirtyStatusUserIds.add(userId);
+        throw e;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of the status file writes that had to wait for another
+   * thread writing the same user's file.
+   *
+   * @return the count
+   */
+  public long getLockContentionCount() {
+    return userLocks.getContentionCount();
+  }
+
+  private void writeUserStatus(String userId, UserStatus userStatus) throws IOException {
     long lastAccess = userStatus.getLastAccess();
     long lastLogin = userStatus.getLastLogin();
     long lastLogout = userStatus.getLastLogout();
@@ -703,10 +948,9 @@ public class UserManager {
 
     String data = sb.toString();
 
-    String userDataPath = getUserDataPath(userId);
-    String path = FileUtil.joinPath(userDataPath, USER_STATUS_FILE_NAME);
+    String key = getUserDataKey(userId, USER_STATUS_FILE_NAME);
     try {
-      FileUtil.write(path, data);
+      getDataStore().write(key, data);
     } catch (IOException ioe) {
       ioe.printStackTrace();
       throw ioe;
@@ -785,8 +1029,11 @@ public class UserManager {
   }
 
   private void deleteUserDataDir(String userId) {
-    String path = getUserDataPath(userId);
-    FileUtil.delete(path, true);
+    try {
+      getDataStore().deleteAll(getUserDataKeyPrefix(userId));
+    } catch (IOException ioe) {
+      Log.e("User data delete error: user=" + userId + ": " + ioe);
+    }
   }
 
 }
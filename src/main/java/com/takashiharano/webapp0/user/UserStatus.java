@@ -12,12 +12,12 @@ import com.takashiharano.webapp0.session.SessionManager;
 public class UserStatus {
 
   private String userId;
-  private long lastAccess;
-  private long lastLogin;
-  private long lastLogout;
-  private long pwChangedTime;
-  private int loginFailedCount;
-  private long loginFailedTime;
+  private volatile long lastAccess;
+  private volatile long lastLogin;
+  private volatile long lastLogout;
+  private volatile long pwChangedTime;
+  private volatile int loginFailedCount;
+  private volatile long loginFailedTime;
 
   public UserStatus(String userId) {
     this(userId, 0L, 0L, 0, 0L);
@@ -0,0 +1,271 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.util;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the log lines in a background thread.<br>
+ * The formatted lines are put in a bounded ring buffer that any thread can
+ * write to without a lock. A single writer thread takes them out and writes
+ * them to the stream in batches. When the buffer is full, the overflow policy
+ * decides what the logging thread does:
+ * <ul>
+ * <li>block: waits for free space. No line is lost.</li>
+ * <li>drop_debug: drops DEBUG lines and waits for the others.</li>
+ * <li>drop: drops the line and counts it.</li>
+ * </ul>
+ * The number of the dropped lines is written to the log when the writer
+ * catches up.
+ */
+public class AsyncLogAppender {
+  public static final String POLICY_BLOCK = "block";
+  public static final String POLICY_DROP_DEBUG = "drop_debug";
+  public static final String POLICY_DROP = "drop";
+  public static final int DEFAULT_CAPACITY = 8192;
+  public static final long DEFAULT_STOP_TIMEOUT_MILLIS = 5000;
+
+  private static final int MAX_BATCH_SIZE = 256;
+  private static final long IDLE_PARK_NANOS = 100000000L;
+  private static final long FULL_PARK_NANOS = 100000L;
+
+  private PrintStream stream;
+  private String policy;
+  private int capacity;
+  private int mask;
+  private String[] lines;
+  // sequence[i] == n: the slot is free for the n-th line.
+  // sequence[i] == n + 1: the n-th line has been written to the slot.
+  private AtomicLongArray sequence;
+  private AtomicLong tail;
+  private volatile long head;
+  private AtomicLong droppedCount;
+  private long reportedDroppedCount;
+  private AtomicLong writtenCount;
+  private volatile boolean running;
+  private volatile boolean sleeping;
+  private Thread writer;
+
+  /**
+   * Creates the appender.
+   *
+   * @param stream
+   *          the output stream
+   * @param capacity
+   *          the number of the lines the buffer holds. rounded up to a power
+   *          of 2.
+   * @param policy
+   *          the overflow policy. block, drop_debug or drop.
+   */
+  public AsyncLogAppender(PrintStream stream, int capacity, String policy) {
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.stream = stream;
+    this.policy = (policy == null) ? POLICY_BLOCK : policy;
+    this.capacity = size;
+    this.mask = size - 1;
+    this.lines = new String[size];
+    this.sequence = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequence.set(i, i);
+    }
+    this.tail = new AtomicLong();
+    this.droppedCount = new AtomicLong();
+    this.writtenCount = new AtomicLong();
+  }
+
+  /**
+   * Starts the writer thread.
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    writer = TaskThreads.newThread("log-writer", this::runWriter);
+    writer.start();
+  }
+
+  /**
+   * Writes all buffered lines and stops the writer thread.<br>
+   * The lines appended after this are written by the calling thread.
+   *
+   * @param timeoutMillis
+   *          the max time to wait for the writer
+   */
+  public synchronized void stop(long timeoutMillis) {
+    if (!running) {
+      return;
+    }
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!writer.isAlive()) {
+      // the lines appended while the writer was exiting
+      StringBuilder sb = new StringBuilder();
+      while (drain(sb) > 0) {
+        flush(sb);
+      }
+    }
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public String getPolicy() {
+    return policy;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of the lines waiting to be written.
+   *
+   * @return the count
+   */
+  public int getPendingCount() {
+    return (int) Math.max(0, tail.get() - head);
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  public long getWrittenCount() {
+    return writtenCount.get();
+  }
+
+  /**
+   * Appends a line.
+   *
+   * @param level
+   *          the log level of the line
+   * @param line
+   *          the formatted line
+   */
+  public void append(int level, String line) {
+    if (!running) {
+      writeDirect(line);
+      return;
+    }
+    while (true) {
+      long t = tail.get();
+      int index = (int) (t & mask);
+      long seq = sequence.get(index);
+      if (seq == t) {
+        if (tail.compareAndSet(t, t + 1)) {
+          lines[index] = line;
+          sequence.set(index, t + 1);
+          if (sleeping) {
+            LockSupport.unpark(writer);
+          }
+          return;
+        }
+      } else if (seq < t) {
+        // full
+        if (!waitForSpace(level)) {
+          droppedCount.incrementAndGet();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Handles the full buffer.
+   *
+   * @return false if the line should be dropped
+   */
+  private boolean waitForSpace(int level) {
+    if (POLICY_DROP.equals(policy)) {
+      return false;
+    }
+    if (POLICY_DROP_DEBUG.equals(policy) && (level <= Log.LogLevel.DEBUG.getLevel())) {
+      return false;
+    }
+    if (!running || (Thread.currentThread() == writer)) {
+      return false;
+    }
+    LockSupport.unpark(writer);
+    LockSupport.parkNanos(FULL_PARK_NANOS);
+    return true;
+  }
+
+  private void runWriter() {
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      boolean stopping = !running;
+      int n = drain(sb);
+      if (n > 0) {
+        flush(sb);
+        continue;
+      }
+      reportDropped();
+      if (stopping) {
+        break;
+      }
+      sleeping = true;
+      if (isEmpty()) {
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+      sleeping = false;
+    }
+  }
+
+  private int drain(StringBuilder sb) {
+    int n = 0;
+    while (n < MAX_BATCH_SIZE) {
+      int index = (int) (head & mask);
+      if (sequence.get(index) != head + 1) {
+        break;
+      }
+      sb.append(lines[index]);
+      sb.append('\n');
+      lines[index] = null;
+      sequence.set(index, head + capacity);
+      head++;
+      n++;
+    }
+    writtenCount.addAndGet(n);
+    return n;
+  }
+
+  private boolean isEmpty() {
+    int index = (int) (head & mask);
+    return sequence.get(index) != head + 1;
+  }
+
+  private void flush(StringBuilder sb) {
+    stream.print(sb);
+    stream.flush();
+    sb.setLength(0);
+  }
+
+  private void reportDropped() {
+    long dropped = droppedCount.get();
+    if (dropped != reportedDroppedCount) {
+      writeDirect("[AsyncLogAppender] " + (dropped - reportedDroppedCount) + " log lines dropped (total=" + dropped + ")");
+      reportedDroppedCount = dropped;
+    }
+  }
+
+  private void writeDirect(String line) {
+    stream.println(line);
+  }
+
+}
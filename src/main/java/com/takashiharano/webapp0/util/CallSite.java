@@ -0,0 +1,87 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.util;
+
+import java.lang.reflect.Method;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Finds the caller's method, file and line for the log.<br>
+ * On Java 9 or later, StackWalker reads only the frames down to the requested
+ * one instead of the whole stack, which is much cheaper in a deep servlet
+ * stack. The API is called via reflection so that this still runs on Java 8,
+ * where the whole stack trace is taken as before.
+ */
+class CallSite {
+
+  private static final Object WALKER;
+  private static final Method WALK;
+  private static final Method GET_METHOD_NAME;
+  private static final Method GET_FILE_NAME;
+  private static final Method GET_LINE_NUMBER;
+
+  static {
+    Object walker = null;
+    Method walk = null;
+    Method getMethodName = null;
+    Method getFileName = null;
+    Method getLineNumber = null;
+    try {
+      Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+      Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+      walker = walkerClass.getMethod("getInstance").invoke(null);
+      walk = walkerClass.getMethod("walk", Function.class);
+      getMethodName = frameClass.getMethod("getMethodName");
+      getFileName = frameClass.getMethod("getFileName");
+      getLineNumber = frameClass.getMethod("getLineNumber");
+    } catch (Exception e) {
+      walker = null;
+    }
+    WALKER = walker;
+    WALK = walk;
+    GET_METHOD_NAME = getMethodName;
+    GET_FILE_NAME = getFileName;
+    GET_LINE_NUMBER = getLineNumber;
+  }
+
+  private CallSite() {
+  }
+
+  /**
+   * Returns the frame at the depth as "method():file:line".
+   *
+   * @param depth
+   *          the depth of the frame from the caller of this method. 0 is the
+   *          caller itself.
+   * @return the call site. "-" if not found.
+   */
+  static String get(int depth) {
+    if (WALKER != null) {
+      // frame 0 is this method
+      int skip = depth + 1;
+      Function<Stream<?>, Object> finder = s -> s.skip(skip).findFirst().orElse(null);
+      try {
+        Object frame = WALK.invoke(WALKER, finder);
+        if (frame == null) {
+          return "-";
+        }
+        return GET_METHOD_NAME.invoke(frame) + "():" + GET_FILE_NAME.invoke(frame) + ":" + GET_LINE_NUMBER.invoke(frame);
+      } catch (Exception e) {
+        // fall back to the stack trace
+      }
+    }
+    // frame 0 is getStackTrace() and 1 is this method
+    StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+    int index = depth + 2;
+    if (index >= stack.length) {
+      return "-";
+    }
+    StackTraceElement frame = stack[index];
+    return frame.getMethodName() + "():" + frame.getFileName() + ":" + frame.getLineNumber();
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values with log-linear buckets.<br>
+ * The values below 32 have their own buckets. Above that, each power of 2 is
+ * split into 16 buckets, so a percentile is accurate within about 6% of the
+ * value for any magnitude, as in HdrHistogram with 4 significant bits.<br>
+ * record() does not allocate and does not block. The statistics read while
+ * values are being recorded are approximate.
+ */
+public class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+  private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+  private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - LINEAR_BITS) * SUB_BUCKET_COUNT;
+
+  private AtomicLongArray counts;
+  private AtomicLong count;
+  private AtomicLong sum;
+  private AtomicLong max;
+
+  public Histogram() {
+    counts = new AtomicLongArray(BUCKET_COUNT);
+    count = new AtomicLong();
+    sum = new AtomicLong();
+    max = new AtomicLong();
+  }
+
+  /**
+   * Records a value.
+   *
+   * @param value
+   *          the value. a negative value is recorded as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(getBucketIndex(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long m = max.get();
+    while ((value > m) && !max.compareAndSet(m, value)) {
+      m = max.get();
+    }
+  }
+
+  /**
+   * Returns the number of the recorded values.
+   *
+   * @return the count
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Returns the sum of the recorded values.
+   *
+   * @return the sum
+   */
+  public long getSum() {
+    return sum.get();
+  }
+
+  /**
+   * Returns the maximum recorded value.
+   *
+   * @return the max. 0 if empty.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the mean of the recorded values.
+   *
+   * @return the mean. 0 if empty.
+   */
+  public double getMean() {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    return (double) sum.get() / n;
+  }
+
+  /**
+   * Returns the value at the percentile.<br>
+   * The result is the upper bound of the bucket that holds the value, and
+   * does not exceed the max.
+   *
+   * @param percentile
+   *          0 to 100 (e.g., 99.9)
+   * @return the value. 0 if empty.
+   */
+  public long getPercentile(double percentile) {
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      total += counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100.0);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(getBucketUpperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Returns the number of the values less than or equal to the bound.<br>
+   * The count is accurate to the bucket that holds the bound.
+   *
+   * @param bound
+   *          the upper bound
+   * @return the count
+   */
+  public long getCountAtOrBelow(long bound) {
+    if (bound < 0) {
+      return 0;
+    }
+    int last = getBucketIndex(bound);
+    long n = 0;
+    for (int i = 0; i <= last; i++) {
+      n += counts.get(i);
+    }
+    return n;
+  }
+
+  /**
+   * Clears all values.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  private static int getBucketIndex(long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exp - SUB_BUCKET_BITS;
+    int sub = (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    return LINEAR_LIMIT + (exp - LINEAR_BITS) * SUB_BUCKET_COUNT + sub;
+  }
+
+  private static long getBucketUpperBound(int index) {
+    if (index < LINEAR_LIMIT) {
+      return index;
+    }
+    int i = index - LINEAR_LIMIT;
+    int exp = i / SUB_BUCKET_COUNT + LINEAR_BITS;
+    int sub = i % SUB_BUCKET_COUNT;
+    int shift = exp - SUB_BUCKET_BITS;
+    long lower = ((long) (SUB_BUCKET_COUNT + sub)) << shift;
+    return lower + (1L << shift) - 1;
+  }
+
+}
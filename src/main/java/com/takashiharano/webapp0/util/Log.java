@@ -5,18 +5,59 @@
  */
 package com.takashiharano.webapp0.util;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.function.Supplier;
 
-import com.libutil.DateTime;
 import com.libutil._Log;
 import com.takashiharano.webapp0.ProcessContext;
 
+/**
+ * The application log.<br>
+ * The lines are written to the standard output by the logging thread, or by
+ * the AsyncLogAppender when the async mode is enabled. In both modes the line
+ * is formatted by the logging thread, since it contains the request context
+ * and the call site.<br>
+ * The Supplier and the template ("{}") methods build the message only when
+ * the level is enabled.
+ *
+ * <pre>
+ * Log.d(() -&gt; "session: " + sessionInfo.toJson());
+ * Log.i("login: uid={} addr={}", userId, addr);
+ * </pre>
+ */
 public class Log extends _Log {
 
-  private ConcurrentHashMap<Long, ProcessContext> tidContextMap;
+  private static final String DEFAULT_DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSXX";
+  private static final int MAX_BUFFER_CAPACITY = 8192;
+
+  private static volatile AsyncLogAppender appender;
+  private static final ThreadLocal<ProcessContext> contextHolder = new ThreadLocal<>();
+  private static final ThreadLocal<StringBuilder> bufferHolder = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+  private volatile int outputLevel;
+  private volatile Timestamp timestamp;
+  private SimpleDateFormat dateFormat;
+
+  /**
+   * The formatted time of a millisecond.
+   */
+  private static class Timestamp {
+    final long millis;
+    final String format;
+    final String text;
+
+    Timestamp(long millis, String format, String text) {
+      this.millis = millis;
+      this.format = format;
+      this.text = text;
+    }
+  }
 
   public Log() {
-    tidContextMap = new ConcurrentHashMap<>();
+    outputLevel = LogLevel.DEBUG.getLevel();
   }
 
   public static void setup(int level, String moduleName) {
@@ -25,28 +66,254 @@ public class Log extends _Log {
     Log.setModuleName(moduleName);
   }
 
-  public static synchronized Log getInstance() {
-    if (instance == null) {
-      instance = new Log();
+  public static Log getInstance() {
+    _Log log = instance;
+    if (log instanceof Log) {
+      return (Log) log;
+    }
+    synchronized (Log.class) {
+      if (!(instance instanceof Log)) {
+        instance = new Log();
+      }
+      return (Log) instance;
+    }
+  }
+
+  public static void setLevel(int level) {
+    _Log.setLevel(level);
+    getInstance().outputLevel = level;
+  }
+
+  /**
+   * Switches the async mode.<br>
+   * The current appender is flushed and stopped first.
+   *
+   * @param async
+   *          true to write the lines in the background
+   * @param capacity
+   *          the number of the lines the buffer holds
+   * @param policy
+   *          the overflow policy. block, drop_debug or drop.
+   */
+  public static synchronized void setAsync(boolean async, int capacity, String policy) {
+    stopAsync(AsyncLogAppender.DEFAULT_STOP_TIMEOUT_MILLIS);
+    if (async) {
+      AsyncLogAppender a = new AsyncLogAppender(System.out, capacity, policy);
+      a.start();
+      appender = a;
+    }
+  }
+
+  /**
+   * Writes the buffered lines and stops the async mode.
+   *
+   * @param timeoutMillis
+   *          the max time to wait for the writer thread
+   */
+  public static synchronized void stopAsync(long timeoutMillis) {
+    AsyncLogAppender a = appender;
+    if (a == null) {
+      return;
+    }
+    appender = null;
+    // The writer reports the dropped lines before it exits.
+    a.stop(timeoutMillis);
+  }
+
+  /**
+   * Returns the async appender.
+   *
+   * @return the appender. null in the sync mode.
+   */
+  public static AsyncLogAppender getAppender() {
+    return appender;
+  }
+
+  public static void d(Object o) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.DEBUG)) {
+      log.writeLog(o, LogLevel.DEBUG, null);
+    }
+  }
+
+  public static void d(Supplier<?> supplier) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.DEBUG)) {
+      log.writeLog(supplier.get(), LogLevel.DEBUG, null);
+    }
+  }
+
+  public static void d(String format, Object... args) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.DEBUG)) {
+      log.writeLog(formatMessage(format, args), LogLevel.DEBUG, getThrowable(format, args));
+    }
+  }
+
+  public static void i(Object o) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.INFO)) {
+      log.writeLog(o, LogLevel.INFO, null);
+    }
+  }
+
+  public static void i(Supplier<?> supplier) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.INFO)) {
+      log.writeLog(supplier.get(), LogLevel.INFO, null);
+    }
+  }
+
+  public static void i(String format, Object... args) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.INFO)) {
+      log.writeLog(formatMessage(format, args), LogLevel.INFO, getThrowable(format, args));
+    }
+  }
+
+  public static void w(Object o) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.WARN)) {
+      log.writeLog(o, LogLevel.WARN, null);
+    }
+  }
+
+  public static void w(Supplier<?> supplier) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.WARN)) {
+      log.writeLog(supplier.get(), LogLevel.WARN, null);
+    }
+  }
+
+  public static void w(String format, Object... args) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.WARN)) {
+      log.writeLog(formatMessage(format, args), LogLevel.WARN, getThrowable(format, args));
+    }
+  }
+
+  public static void e(Object o) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.ERROR)) {
+      log.writeLog(o, LogLevel.ERROR, null);
+    }
+  }
+
+  public static void e(Object o, Throwable t) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.ERROR)) {
+      log.writeLog(o, LogLevel.ERROR, t);
+    }
+  }
+
+  public static void e(Supplier<?> supplier) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.ERROR)) {
+      log.writeLog(supplier.get(), LogLevel.ERROR, null);
+    }
+  }
+
+  public static void e(String format, Object... args) {
+    Log log = getInstance();
+    if (log.isEnabled(LogLevel.ERROR)) {
+      log.writeLog(formatMessage(format, args), LogLevel.ERROR, getThrowable(format, args));
+    }
+  }
+
+  public static boolean isDebugEnabled() {
+    return getInstance().isEnabled(LogLevel.DEBUG);
+  }
+
+  /**
+   * Returns whether the lines of the level are written.
+   *
+   * @param lv
+   *          the log level
+   * @return true if enabled
+   */
+  public boolean isEnabled(LogLevel lv) {
+    return lv.getLevel() >= outputLevel;
+  }
+
+  /**
+   * Replaces each "{}" in the template with the next argument.<br>
+   * A Throwable at the end that has no placeholder is not embedded but its
+   * stack trace is written after the line.
+   */
+  private static String formatMessage(String format, Object[] args) {
+    if ((format == null) || (args == null) || (args.length == 0)) {
+      return format;
+    }
+    StringBuilder sb = new StringBuilder(format.length() + args.length * 16);
+    int argIndex = 0;
+    int pos = 0;
+    while (argIndex < args.length) {
+      int p = format.indexOf("{}", pos);
+      if (p < 0) {
+        break;
+      }
+      sb.append(format, pos, p);
+      sb.append(args[argIndex++]);
+      pos = p + 2;
+    }
+    sb.append(format, pos, format.length());
+    return sb.toString();
+  }
+
+  private static Throwable getThrowable(String format, Object[] args) {
+    if ((args == null) || (args.length == 0) || !(args[args.length - 1] instanceof Throwable)) {
+      return null;
+    }
+    int placeholders = 0;
+    if (format != null) {
+      int p = format.indexOf("{}");
+      while (p >= 0) {
+        placeholders++;
+        p = format.indexOf("{}", p + 2);
+      }
+    }
+    if (placeholders >= args.length) {
+      return null;
+    }
+    return (Throwable) args[args.length - 1];
+  }
+
+  /**
+   * Formats and writes a line.<br>
+   * This must be called directly from the static log methods, as the call
+   * site is taken from the fixed depth of the stack.
+   */
+  private void writeLog(Object o, LogLevel lv, Throwable t) {
+    String msg = buildMessage(o, lv, 0, true);
+    if (t != null) {
+      StringWriter sw = new StringWriter();
+      t.printStackTrace(new PrintWriter(sw));
+      msg += "\n" + sw.toString().trim();
+    }
+    AsyncLogAppender a = appender;
+    if (a == null) {
+      System.out.println(msg);
+    } else {
+      a.append(lv.getLevel(), msg);
     }
-    return (Log) instance;
   }
 
   public static void setContext(ProcessContext context) {
     getInstance()._setContext(context);
   }
 
+  /**
+   * Binds the processing context to the current thread.
+   *
+   * @param context
+   *          the context
+   */
   public void _setContext(ProcessContext context) {
-    Thread th = Thread.currentThread();
-    long tid = th.getId();
-    tidContextMap.put(tid, context);
+    contextHolder.set(context);
   }
 
   public ProcessContext getContext() {
-    Thread th = Thread.currentThread();
-    long tid = th.getId();
-    ProcessContext context = tidContextMap.get(tid);
-    return context;
+    return contextHolder.get();
   }
 
   public static void removeContext() {
@@ -54,48 +321,48 @@ public class Log extends _Log {
   }
 
   /**
-   * Unbind the TID from the processing context.
+   * Unbind the processing context from the current thread.
    */
   public void _removeContext() {
-    Thread th = Thread.currentThread();
-    long tid = th.getId();
-    tidContextMap.remove(tid);
+    contextHolder.remove();
   }
 
+  /**
+   * Builds a line.<br>
+   * The line is built in a buffer reused by the thread, so the only
+   * allocation is the resulting string. The time is formatted once per
+   * millisecond.
+   */
   protected String buildMessage(Object o, LogLevel lv, int stackFrameOffset, boolean printLine) {
-    Thread th = Thread.currentThread();
     ProcessContext context = getContext();
-    StringBuilder sb = new StringBuilder();
+    StringBuilder sb = bufferHolder.get();
+    sb.setLength(0);
 
     if ((flag & FLAG_TIME) != 0) {
-      String datetime = DateTime.getCurrentString(dateTimeFormat);
-      sb.append(datetime);
-      sb.append(" ");
+      sb.append(getTimestamp());
+      sb.append(' ');
     }
 
-    StringBuilder inf = new StringBuilder();
     if ((flag & FLAG_LEVEL) != 0) {
-      inf.append("[");
-      inf.append(lv.getTypeSymbol());
-      inf.append("]");
+      sb.append('[');
+      sb.append(lv.getTypeSymbol());
+      sb.append(']');
     }
 
     if (((flag & FLAG_MODULE_NAME) != 0) && (moduleName != null)) {
-      inf.append("[");
-      inf.append(moduleName);
-      inf.append("]");
+      sb.append('[');
+      sb.append(moduleName);
+      sb.append(']');
     }
 
     if ((flag & FLAG_TID) != 0) {
-      long tid = th.getId();
-      inf.append("[tid:");
-      inf.append(tid);
-      inf.append("]");
+      sb.append("[tid:");
+      sb.append(Thread.currentThread().getId());
+      sb.append(']');
     }
 
     String addr = "-";
-    String userId = "-";
-
+    String userId = null;
     if (context != null) {
       addr = context.getRemoteAddr();
       userId = context.getUserId();
@@ -104,34 +371,53 @@ public class Log extends _Log {
       userId = "-";
     }
 
-    inf.append("[");
-    inf.append(addr);
-    inf.append("]");
+    sb.append('[');
+    sb.append(addr);
+    sb.append(']');
 
-    inf.append("[");
-    inf.append(userId);
-    inf.append("]");
+    sb.append('[');
+    sb.append(userId);
+    sb.append(']');
 
     if (((flag & FLAG_LINE) != 0) && printLine) {
-      StackTraceElement[] stack = th.getStackTrace();
-      int stackFrameIndex = 4 + stackFrameOffset;
-      StackTraceElement frame = stack[stackFrameIndex];
-      String method = frame.getMethodName() + "()";
-      String fileName = frame.getFileName();
-      int line = frame.getLineNumber();
-      String fileLine = method + ":" + fileName + ":" + line;
-      inf.append("[");
-      inf.append(fileLine);
-      inf.append("]");
-    }
-
-    if (inf.length() > 0) {
-      sb.append(inf);
-      sb.append(" ");
+      // 0: buildMessage() 1: writeLog() 2: Log.x() 3: caller
+      sb.append('[');
+      sb.append(CallSite.get(3 + stackFrameOffset));
+      sb.append(']');
     }
+
+    sb.append(' ');
     sb.append(dump(o));
 
-    return sb.toString();
+    String message = sb.toString();
+    if (sb.capacity() > MAX_BUFFER_CAPACITY) {
+      bufferHolder.remove();
+    }
+    return message;
+  }
+
+  /**
+   * Returns the formatted current time.<br>
+   * The text is shared by all threads until the clock moves to the next
+   * millisecond.
+   */
+  private String getTimestamp() {
+    long now = System.currentTimeMillis();
+    String format = (dateTimeFormat == null) ? DEFAULT_DATE_TIME_FORMAT : dateTimeFormat;
+    Timestamp ts = timestamp;
+    if ((ts != null) && (ts.millis == now) && ts.format.equals(format)) {
+      return ts.text;
+    }
+    String text = formatTimestamp(now, format);
+    timestamp = new Timestamp(now, format, text);
+    return text;
+  }
+
+  private synchronized String formatTimestamp(long millis, String format) {
+    if ((dateFormat == null) || !format.equals(dateFormat.toPattern())) {
+      dateFormat = new SimpleDateFormat(format);
+    }
+    return dateFormat.format(new Date(millis));
   }
 
 }
@@ -0,0 +1,100 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable, versioned map of records.<br>
+ * A writer builds the next snapshot with put() or remove() and publishes it
+ * through a volatile field. Readers use the snapshot they have read without
+ * locking. The version is incremented on every change.
+ *
+ * @param <V>
+ *          the record type
+ */
+public final class Snapshot<V> {
+
+  private final Map<String, V> map;
+  private final long version;
+
+  /**
+   * Creates a snapshot.<br>
+   * The given map is owned by the snapshot and must not be modified afterwards.
+   *
+   * @param map
+   *          the records in the order of iteration
+   * @param version
+   *          the version of the snapshot
+   */
+  public Snapshot(LinkedHashMap<String, V> map, long version) {
+    this.map = Collections.unmodifiableMap(map);
+    this.version = version;
+  }
+
+  /**
+   * Creates an empty snapshot of version 0.
+   */
+  public Snapshot() {
+    this(new LinkedHashMap<String, V>(), 0L);
+  }
+
+  public V get(String key) {
+    return map.get(key);
+  }
+
+  public boolean containsKey(String key) {
+    return map.containsKey(key);
+  }
+
+  public int size() {
+    return map.size();
+  }
+
+  /**
+   * Returns the records as an unmodifiable map.
+   *
+   * @return the map
+   */
+  public Map<String, V> getMap() {
+    return map;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the next snapshot with the record added or replaced.
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the record
+   * @return the new snapshot
+   */
+  public Snapshot<V> put(String key, V value) {
+    LinkedHashMap<String, V> next = new LinkedHashMap<>(map);
+    next.put(key, value);
+    return new Snapshot<>(next, version + 1);
+  }
+
+  /**
+   * Returns the next snapshot without the record.
+   *
+   * @param key
+   *          the key
+   * @return the new snapshot
+   */
+  public Snapshot<V> remove(String key) {
+    LinkedHashMap<String, V> next = new LinkedHashMap<>(map);
+    next.remove(key);
+    return new Snapshot<>(next, version + 1);
+  }
+
+}
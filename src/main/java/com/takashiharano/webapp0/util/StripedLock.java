@@ -0,0 +1,80 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks selected by the hash of a key.<br>
+ * Threads working on different keys rarely wait for each other.
+ *
+ * <pre>
+ * ReentrantLock lock = stripedLock.lock(userId);
+ * try {
+ *   ...
+ * } finally {
+ *   lock.unlock();
+ * }
+ * </pre>
+ */
+public class StripedLock {
+
+  private ReentrantLock[] locks;
+  private int mask;
+  private AtomicLong contentionCount;
+
+  /**
+   * Creates the locks.
+   *
+   * @param stripes
+   *          the number of the locks. rounded up to a power of 2.
+   */
+  public StripedLock(int stripes) {
+    int n = 1;
+    while (n < stripes) {
+      n <<= 1;
+    }
+    locks = new ReentrantLock[n];
+    for (int i = 0; i < n; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    mask = n - 1;
+    contentionCount = new AtomicLong();
+  }
+
+  /**
+   * Acquires the lock for the key.
+   *
+   * @param key
+   *          the key
+   * @return the acquired lock. the caller must unlock it.
+   */
+  public ReentrantLock lock(String key) {
+    ReentrantLock lock = getLock(key);
+    if (!lock.tryLock()) {
+      contentionCount.incrementAndGet();
+      lock.lock();
+    }
+    return lock;
+  }
+
+  /**
+   * Returns the number of the acquisitions that had to wait for another thread.
+   *
+   * @return the count
+   */
+  public long getContentionCount() {
+    return contentionCount.get();
+  }
+
+  private ReentrantLock getLock(String key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return locks[h & mask];
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+package com.takashiharano.webapp0.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads for the background work: async tasks, interval tasks
+ * and flushers.<br>
+ * In "virtual" mode the threads are virtual threads (JDK 21 or later).
+ * The API is called via reflection so that the application still builds and
+ * runs on Java 8, where "virtual" falls back to the platform threads.
+ */
+public class TaskThreads {
+
+  public static final String MODE_PLATFORM = "platform";
+  public static final String MODE_VIRTUAL = "virtual";
+
+  private static volatile boolean virtual = false;
+  private static volatile ThreadFactory virtualFactory;
+
+  /**
+   * Selects the thread mode. This must be called before any task starts.
+   *
+   * @param mode
+   *          "platform" or "virtual"
+   * @return true if the virtual threads are in use
+   */
+  public static synchronized boolean setMode(String mode) {
+    virtual = false;
+    virtualFactory = null;
+    if (!MODE_VIRTUAL.equals(mode)) {
+      return false;
+    }
+    try {
+      Method ofVirtual = Thread.class.getMethod("ofVirtual");
+      Object builder = ofVirtual.invoke(null);
+      // The builder class itself is not accessible; call through the public
+      // Thread.Builder interface. The factory is thread-safe, the builder is
+      // not.
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Method factory = builderClass.getMethod("factory");
+      virtualFactory = (ThreadFactory) factory.invoke(builder);
+      virtual = true;
+    } catch (Exception e) {
+      Log.w("Virtual threads are not available on Java " + System.getProperty("java.version") + ". Using platform threads.");
+    }
+    return virtual;
+  }
+
+  /**
+   * Returns whether the virtual threads are in use.
+   *
+   * @return true if virtual
+   */
+  public static boolean isVirtual() {
+    return virtual;
+  }
+
+  /**
+   * Returns the current mode.
+   *
+   * @return "platform" or "virtual"
+   */
+  public static String getMode() {
+    return virtual ? MODE_VIRTUAL : MODE_PLATFORM;
+  }
+
+  /**
+   * Creates an unstarted thread.<br>
+   * A platform thread is a daemon thread.
+   *
+   * @param name
+   *          the thread name
+   * @param task
+   *          the task to run
+   * @return the thread
+   */
+  public static Thread newThread(String name, Runnable task) {
+    ThreadFactory factory = virtualFactory;
+    if (factory != null) {
+      Thread t = factory.newThread(task);
+      t.setName(name);
+      return t;
+    }
+    Thread t = new Thread(task, name);
+    t.setDaemon(true);
+    return t;
+  }
+
+  /**
+   * Returns a ThreadFactory that names the threads "PREFIX-1", "PREFIX-2", ...
+   *
+   * @param namePrefix
+   *          the prefix of the thread names
+   * @return the factory
+   */
+  public static ThreadFactory newThreadFactory(String namePrefix) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> newThread(namePrefix + "-" + count.incrementAndGet(), r);
+  }
+
+}
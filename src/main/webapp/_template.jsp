@@ -1,4 +1,4 @@
-<%@ page language="java" contentType="text/html; charset=utf-8" %>
+<%@ page language="java" contentType="text/html; charset=utf-8" session="false" %>
 <%@ page import="com.takashiharano.webapp0.ProcessContext" %>
 <%
 ProcessContext context = (ProcessContext) request.getAttribute("context");
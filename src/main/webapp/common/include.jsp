@@ -1,3 +1,4 @@
+<%@ page session="false"%>
 <script src="libs/sha.js"></script>
 <script src="libs/debug.js"></script>
 <script src="libs/util.js"></script>
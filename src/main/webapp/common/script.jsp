@@ -1,3 +1,4 @@
+<%@ page session="false"%>
 <%@ page import="com.takashiharano.webapp0.ProcessContext"%>
 <%@ page import="com.takashiharano.webapp0.AppManager"%>
 <%@ page import="com.takashiharano.webapp0.user.User"%>
@@ -1,3 +1,4 @@
+<%@ page session="false"%>
 <%@ page import="com.takashiharano.webapp0.ProcessContext"%>
 <%
 ProcessContext context = (ProcessContext) request.getAttribute("context");
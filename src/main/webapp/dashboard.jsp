@@ -1,4 +1,4 @@
-<%@ page language="java" contentType="text/html; charset=utf-8" %>
+<%@ page language="java" contentType="text/html; charset=utf-8" session="false" %>
 <%@ page import="com.takashiharano.webapp0.ProcessContext" %>
 <%@ page import="java.util.Date" %>
 <%@ page import="java.text.SimpleDateFormat" %>
@@ -9,6 +9,7 @@ Date date = new Date(timestamp);
 SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
 String datetime = sdf.format(date);
 String appVersion = context.getAppVersion();
+boolean isSysAdmin = context.hasPermission("sysadmin");
 %>
 <!DOCTYPE html>
 <html>
@@ -18,6 +19,16 @@ String appVersion = context.getAppVersion();
 <jsp:include page="common/include.jsp" />
 <jsp:include page="common/style.jsp" />
 <jsp:include page="common/script.jsp" />
+<% if (isSysAdmin) { %>
+<style>
+.telemetry-chart {
+  display: inline-block;
+  margin: 0 16px 16px 0;
+  vertical-align: top;
+}
+</style>
+<script src="js/dashboard.js"></script>
+<% } %>
 </head>
 <body>
 <jsp:include page="common/header.jsp" />
@@ -28,6 +39,12 @@ String appVersion = context.getAppVersion();
 Hello, world!
 <%= datetime %> (<%= timestamp %>)
 </pre>
+<% if (isSysAdmin) { %>
+<div id="telemetry">
+JVM Telemetry <span id="telemetry-resolution-wrapper"></span>
+<div id="telemetry-charts"></div>
+</div>
+<% } %>
 
 </div>
 <jsp:include page="common/footer.jsp" />
@@ -0,0 +1,191 @@
+/*!
+ * THIS CODE IS IMPLEMENTED BASED ON THE WEBAPP0 TEMPLATE.
+ * The template is released under the MIT license.
+ * Copyright 2024 Takashi Harano
+ */
+app.dashboard = {};
+var scnjs = app.dashboard;
+
+scnjs.MB = 1024 * 1024;
+scnjs.CHART_W = 460;
+scnjs.CHART_H = 150;
+scnjs.COLORS = ['#0a0', '#08f', '#f80', '#c0c', '#c00', '#088'];
+
+// label: chart title, unit: y-axis unit, series: function(cur, prev) returning the values of a sample
+scnjs.CHARTS = [
+  {id: 'heap', label: 'Heap (used / committed)', unit: 'MB', names: ['used', 'committed'], series: function(s) {
+    return [s.heap_used / scnjs.MB, s.heap_committed / scnjs.MB];
+  }},
+  {id: 'nonheap', label: 'Non-heap (used / committed)', unit: 'MB', names: ['used', 'committed'], series: function(s) {
+    return [s.nonheap_used / scnjs.MB, s.nonheap_committed / scnjs.MB];
+  }},
+  {id: 'gc', label: 'GC time', unit: '%', names: null, series: function(s, p) {
+    var v = [];
+    for (var i = 0; i < s.gc_time.length; i++) {
+      v.push(p ? (s.gc_time[i] - p.gc_time[i]) * 100 / (s.time - p.time) : 0);
+    }
+    return v;
+  }},
+  {id: 'alloc', label: 'Allocation rate', unit: 'MB/s', names: ['alloc'], series: function(s, p) {
+    if (!p || (s.allocated_bytes < 0)) return [0];
+    return [(s.allocated_bytes - p.allocated_bytes) / scnjs.MB * 1000 / (s.time - p.time)];
+  }},
+  {id: 'cpu', label: 'CPU', unit: '%', names: ['process', 'system'], series: function(s) {
+    return [Math.max(s.process_cpu, 0) * 100, Math.max(s.system_cpu, 0) * 100];
+  }},
+  {id: 'threads', label: 'Threads (live / daemon)', unit: '', names: ['live', 'daemon'], series: function(s) {
+    return [s.threads, s.daemon_threads];
+  }},
+  {id: 'classes', label: 'Loaded classes', unit: '', names: ['loaded'], series: function(s) {
+    return [s.classes];
+  }}
+];
+
+scnjs.resolution = 0;
+scnjs.samples = [];
+scnjs.collectors = [];
+scnjs.tmrId = 0;
+
+$onReady = function() {
+  scnjs.buildCharts();
+  scnjs.update();
+};
+
+scnjs.buildCharts = function() {
+  var html = '';
+  for (var i = 0; i < scnjs.CHARTS.length; i++) {
+    var chart = scnjs.CHARTS[i];
+    html += '<div class="telemetry-chart">';
+    html += '<div>' + chart.label + ' <span id="telemetry-' + chart.id + '-value"></span></div>';
+    html += '<canvas id="telemetry-' + chart.id + '" width="' + scnjs.CHART_W + '" height="' + scnjs.CHART_H + '"></canvas>';
+    html += '</div>';
+  }
+  $el('#telemetry-charts').innerHTML = html;
+};
+
+scnjs.changeResolution = function() {
+  scnjs.resolution = $el('#telemetry-resolution').value | 0;
+  scnjs.samples = [];
+  scnjs.update();
+};
+
+scnjs.update = function() {
+  if (scnjs.tmrId > 0) {
+    clearTimeout(scnjs.tmrId);
+    scnjs.tmrId = 0;
+  }
+  var since = (scnjs.samples.length > 0) ? scnjs.samples[scnjs.samples.length - 1].time : 0;
+  var params = {
+    since: since
+  };
+  if (scnjs.resolution > 0) {
+    params.res = scnjs.resolution;
+  }
+  app.callServerApi('GetTelemetry', params, scnjs.onUpdate);
+};
+
+scnjs.onUpdate = function(xhr, res) {
+  if (res.status != 'OK') {
+    $el('#telemetry').innerHTML = res.status;
+    return;
+  }
+  var data = res.body;
+  if (scnjs.resolution == 0) {
+    scnjs.resolution = data.resolution;
+    scnjs.drawResolutionSelector(data.resolutions);
+  }
+  scnjs.collectors = data.collectors;
+  var samples = scnjs.toObjects(data.columns, data.samples);
+  scnjs.samples = scnjs.samples.concat(samples);
+  var maxLen = data.span / data.resolution;
+  if (scnjs.samples.length > maxLen) {
+    scnjs.samples = scnjs.samples.slice(scnjs.samples.length - maxLen);
+  }
+  scnjs.drawCharts();
+  scnjs.tmrId = setTimeout(scnjs.update, data.resolution * 1000);
+};
+
+scnjs.toObjects = function(columns, rows) {
+  var samples = [];
+  for (var i = 0; i < rows.length; i++) {
+    var s = {};
+    for (var j = 0; j < columns.length; j++) {
+      s[columns[j]] = rows[i][j];
+    }
+    samples.push(s);
+  }
+  return samples;
+};
+
+scnjs.drawResolutionSelector = function(resolutions) {
+  var html = '<select id="telemetry-resolution" onchange="app.dashboard.changeResolution();">';
+  for (var i = 0; i < resolutions.length; i++) {
+    var r = resolutions[i];
+    var selected = (r == scnjs.resolution) ? ' selected' : '';
+    html += '<option value="' + r + '"' + selected + '>' + r + 's</option>';
+  }
+  html += '</select>';
+  $el('#telemetry-resolution-wrapper').innerHTML = html;
+};
+
+scnjs.drawCharts = function() {
+  for (var i = 0; i < scnjs.CHARTS.length; i++) {
+    var chart = scnjs.CHARTS[i];
+    var points = [];
+    for (var j = 1; j < scnjs.samples.length; j++) {
+      points.push(chart.series(scnjs.samples[j], scnjs.samples[j - 1]));
+    }
+    var names = chart.names;
+    if (!names) {
+      names = [];
+      for (j = 0; j < scnjs.collectors.length; j++) {
+        names.push(scnjs.collectors[j].name);
+      }
+    }
+    scnjs.drawChart($el('#telemetry-' + chart.id), points, names);
+    var last = (points.length > 0) ? points[points.length - 1] : [];
+    var values = [];
+    for (j = 0; j < last.length; j++) {
+      values.push(names[j] + '=' + (Math.round(last[j] * 10) / 10) + chart.unit);
+    }
+    $el('#telemetry-' + chart.id + '-value').innerHTML = values.join(' ');
+  }
+};
+
+scnjs.drawChart = function(canvas, points, names) {
+  var ctx = canvas.getContext('2d');
+  var w = canvas.width;
+  var h = canvas.height - 14;
+  ctx.clearRect(0, 0, canvas.width, canvas.height);
+  ctx.strokeStyle = '#888';
+  ctx.strokeRect(0.5, 0.5, w - 1, h);
+
+  var max = 0;
+  for (var i = 0; i < points.length; i++) {
+    for (var j = 0; j < points[i].length; j++) {
+      if (points[i][j] > max) max = points[i][j];
+    }
+  }
+  if (max == 0) max = 1;
+  ctx.fillStyle = '#888';
+  ctx.font = '10px sans-serif';
+  ctx.fillText((Math.round(max * 10) / 10) + '', 3, 11);
+
+  var maxLen = Math.max(points.length, 2);
+  for (j = 0; j < names.length; j++) {
+    ctx.strokeStyle = scnjs.COLORS[j % scnjs.COLORS.length];
+    ctx.beginPath();
+    for (i = 0; i < points.length; i++) {
+      var x = w - (points.length - 1 - i) * (w / (maxLen - 1));
+      var y = h - (points[i][j] / max) * (h - 2);
+      if (i == 0) {
+        ctx.moveTo(x, y);
+      } else {
+        ctx.lineTo(x, y);
+      }
+    }
+    ctx.stroke();
+    ctx.fillStyle = ctx.strokeStyle;
+    ctx.fillText(names[j], 3 + j * 90, h + 12);
+  }
+};
@@ -2,6 +2,7 @@ app.screen2 = {};
 
 app.screen2.timerId = 0;
 app.screen2.led1 = null;
+app.screen2.eventSource = null;
 
 $onReady = function() {
   app.screen2.led1 = new util.Led('#led1');
@@ -33,9 +34,58 @@ app.screen2.startAsyncTaskCb = function(xhr, res) {
 
 app.screen2.startWatchStatus = function() {
   app.screen2.led1.on();
+  if (app.screen2.openEventStream()) {
+    return;
+  }
   app.screen2.watchStatus();
 };
 
+//-----------------------------------------------------------------------------
+// One stream per page for all tasks. Falls back to polling without EventSource.
+app.screen2.openEventStream = function() {
+  if (app.screen2.eventSource) {
+    return true;
+  }
+  if (!window.EventSource) {
+    return false;
+  }
+  var es = new EventSource('taskevents');
+  es.addEventListener('info', app.screen2.onTaskInfoEvent);
+  es.addEventListener('done', app.screen2.onTaskDoneEvent);
+  es.onerror = function() {
+    if (es.readyState == EventSource.CLOSED) {
+      app.screen2.eventSource = null;
+      app.screen2.led1.off();
+    }
+  };
+  app.screen2.eventSource = es;
+  return true;
+};
+
+app.screen2.onTaskInfoEvent = function(ev) {
+  var data = JSON.parse(ev.data);
+  if (data.taskId != $el('#task-id').value) {
+    return;
+  }
+  var s = data.taskId + ': isDone=false : ' + data.info;
+  app.screen2.showInfo(s);
+};
+
+app.screen2.onTaskDoneEvent = function(ev) {
+  var data = JSON.parse(ev.data);
+  if (data.taskId != $el('#task-id').value) {
+    return;
+  }
+  var s = data.taskId + ': isDone=true : ';
+  if (data.cancelled) {
+    s += 'canceled';
+  } else {
+    s += (data.error ? 'ERROR: ' : '') + data.result;
+  }
+  app.screen2.showInfo(s);
+  app.screen2.led1.off();
+};
+
 app.screen2.stopWatchStatus = function() {
   if (app.screen2.timerId > 0) {
     clearTimeout(app.screen2.timerId);